@@ -0,0 +1,42 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line, like JMH's own main, but
+ * always writes the results as JSON so runs can be compared and archived:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar RouteTableBenchmark results/routes.json
+ * </pre>
+ *
+ * The last argument ending in .json names the result file, by default
+ * {@code jmh-result.json}; everything else is passed to JMH.
+ *
+ * @author gang
+ *
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		String result = "jmh-result.json";
+		if (args.length > 0 && args[args.length - 1].endsWith(".json")) {
+			result = args[args.length - 1];
+			args = Arrays.copyOf(args, args.length - 1);
+		}
+
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.resultFormat(ResultFormatType.JSON)
+				.result(result)
+				.build();
+		new Runner(options).run();
+	}
+}
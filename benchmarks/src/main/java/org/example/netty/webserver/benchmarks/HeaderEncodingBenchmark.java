@@ -0,0 +1,95 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.util.HttpDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Date header formatting and the encoding of a typical response head, with the
+ * pre-encoded {@link AsciiString} values the server uses against plain
+ * strings.
+ *
+ * @author gang
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderEncodingBenchmark {
+	private static final AsciiString SERVER = AsciiString.cached("Netty");
+	private static final AsciiString TYPE = AsciiString.cached("text/plain; charset=UTF-8");
+
+	final EmbeddedChannel channel = new EmbeddedChannel(new HttpResponseEncoder());
+
+	@TearDown
+	public void close() {
+		channel.finishAndReleaseAll();
+	}
+
+	@Benchmark
+	public AsciiString dateCached() {
+		return HttpDate.now();
+	}
+
+	@Benchmark
+	public String dateFormatted() {
+		return DateFormatter.format(new Date());
+	}
+
+	@Benchmark
+	public int encodeAsciiHeaders() {
+		return encode(SERVER, TYPE, HttpDate.now());
+	}
+
+	@Benchmark
+	public int encodeStringHeaders() {
+		return encode("Netty", "text/plain; charset=UTF-8", DateFormatter.format(new Date()));
+	}
+
+	private int encode(CharSequence server, CharSequence type, CharSequence date) {
+		final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+				PooledByteBufAllocator.DEFAULT.buffer(0), false);
+		response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		response.headers().set(HttpHeaderNames.SERVER, server);
+		response.headers().set(HttpHeaderNames.DATE, date);
+		response.headers().set(HttpHeaderNames.CONTENT_TYPE, type);
+		response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+		channel.writeOutbound(response);
+
+		int bytes = 0;
+		for (Object msg; (msg = channel.readOutbound()) != null;) {
+			if (msg instanceof ByteBuf)
+				bytes += ((ByteBuf) msg).readableBytes();
+			ReferenceCountUtil.release(msg);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,176 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Drives one keep-alive connection with up to {@code depth} pipelined
+ * requests. Everything runs on the connection's event loop.
+ * <p>
+ * With a rate, requests are due at fixed intervals and latency is measured
+ * from when a request was due, not from when it could be sent, so a stalled
+ * server shows up in the histogram instead of just slowing the client down
+ * (coordinated omission). Without a rate the connection sends as fast as
+ * responses come back, and the histogram is corrected afterwards, see
+ * {@link LoadGenerator}.
+ *
+ * @author gang
+ *
+ */
+class HttpLoadHandler extends ChannelInboundHandlerAdapter {
+	private final String host;
+	private final String[] paths;
+	private final int depth;
+	private final long intervalNanos;
+
+	/** when each request in flight was due */
+	private final ArrayDeque<Long> inFlight = new ArrayDeque<Long>();
+	/** requests that are due but wait for a pipeline slot */
+	private final ArrayDeque<Long> owed = new ArrayDeque<Long>();
+
+	final Histogram histogram = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+	long completed;
+	long errors;
+
+	private ChannelHandlerContext ctx;
+	private ScheduledFuture<?> ticker;
+	private long startNanos;
+	private long ticks;
+	private boolean stopping;
+
+	/**
+	 * @param paths request paths, repeated to weight them
+	 * @param rate requests per second on this connection, 0 for as fast as
+	 *            possible
+	 */
+	HttpLoadHandler(String host, String[] paths, int depth, double rate) {
+		this.host = host;
+		this.paths = paths;
+		this.depth = Math.max(1, depth);
+		this.intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+		startNanos = System.nanoTime();
+		if (intervalNanos == 0) {
+			for (int i = 0; i < depth; i++)
+				send(System.nanoTime());
+			ctx.flush();
+		} else {
+			ticker = ctx.executor().scheduleAtFixedRate(this::tick, 0, intervalNanos, TimeUnit.NANOSECONDS);
+		}
+		super.channelActive(ctx);
+	}
+
+	private void tick() {
+		// catch up on every interval that passed, a late timer must not hide a stall
+		final long now = System.nanoTime();
+		for (long due; (due = startNanos + ticks * intervalNanos) <= now; ticks++)
+			owed.add(due);
+		drain();
+	}
+
+	private void drain() {
+		boolean sent = false;
+		while (!stopping && inFlight.size() < depth && !owed.isEmpty()) {
+			send(owed.poll());
+			sent = true;
+		}
+		if (sent)
+			ctx.flush();
+	}
+
+	private void send(long due) {
+		final String path = paths[paths.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(paths.length)];
+		final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path,
+				Unpooled.EMPTY_BUFFER);
+		request.headers().set(HttpHeaderNames.HOST, host);
+		inFlight.add(due);
+		ctx.write(request, ctx.voidPromise());
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		try {
+			if (msg instanceof HttpResponse && ((HttpResponse) msg).status().code() >= 400)
+				errors++;
+			if (msg instanceof LastHttpContent)
+				completed(System.nanoTime());
+		} finally {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+
+	private void completed(long now) {
+		final Long due = inFlight.poll();
+		if (due == null)
+			return;
+		histogram.recordValue(Math.min(histogram.getHighestTrackableValue(), TimeUnit.NANOSECONDS.toMicros(now - due)));
+		completed++;
+
+		if (stopping) {
+			if (inFlight.isEmpty())
+				ctx.close();
+		} else if (intervalNanos == 0) {
+			send(now);
+			ctx.flush();
+		} else {
+			drain();
+		}
+	}
+
+	/**
+	 * Forgets everything recorded so far, at the end of the warm-up.
+	 */
+	void reset() {
+		histogram.reset();
+		completed = 0;
+		errors = 0;
+	}
+
+	/**
+	 * Stops sending; the connection closes once the requests in flight are
+	 * answered.
+	 */
+	void stop() {
+		stopping = true;
+		if (ticker != null)
+			ticker.cancel(false);
+		if (ctx != null && inFlight.isEmpty())
+			ctx.close();
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (!stopping)
+			errors += inFlight.size() + 1;
+		stopping = true;
+		if (ticker != null)
+			ticker.cancel(false);
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		errors++;
+		ctx.close();
+	}
+}
@@ -0,0 +1,100 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.HttpServer;
+import org.example.netty.webserver.HttpServerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole server on loopback with the default configuration: keep-alive
+ * requests for a text route and a 16 KB static file, one connection per
+ * benchmark thread. It runs with and without route metrics, to show what
+ * the per-route counters cost.
+ *
+ * @author gang
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class HttpServerBenchmark {
+	static final int PORT = 18091;
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		@Param({ "true", "false" })
+		boolean routeMetrics;
+
+		HttpServer server;
+		File file;
+
+		@Setup(Level.Trial)
+		public void start() throws IOException {
+			file = File.createTempFile("bench", ".txt");
+			final byte[] content = new byte[16 * 1024];
+			Arrays.fill(content, (byte) 'x');
+			Files.write(file.toPath(), content);
+
+			server = new HttpServer(new HttpServerConfig().setRouteMetrics(routeMetrics));
+			server.get("/hello", request -> "world");
+			server.get("/static.txt", request -> file);
+			server.start(new InetSocketAddress(PORT));
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			server.close();
+			file.delete();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Connections {
+		LoopbackClient hello;
+		LoopbackClient file;
+
+		@Setup(Level.Trial)
+		public void open(Server server) throws IOException {
+			hello = new LoopbackClient(new InetSocketAddress("localhost", PORT), "/hello");
+			file = new LoopbackClient(new InetSocketAddress("localhost", PORT), "/static.txt");
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			hello.close();
+			file.close();
+		}
+	}
+
+	@Benchmark
+	public int hello(Connections connections) throws IOException {
+		return connections.hello.get();
+	}
+
+	@Benchmark
+	public int staticFile(Connections connections) throws IOException {
+		return connections.file.get();
+	}
+}
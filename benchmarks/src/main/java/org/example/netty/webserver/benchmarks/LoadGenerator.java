@@ -0,0 +1,294 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+
+/**
+ * A load generator for a running server, typically on the same host:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.example.netty.webserver.benchmarks.LoadGenerator \
+ *     --url http://localhost:8080 --connections 64 --pipeline 4 --rate 50000 \
+ *     --path /static/index.html=9 --path /static/app.js=1 \
+ *     --ws /ws --ws-connections 100 --ws-rate 10 --duration 30
+ * </pre>
+ *
+ * HTTP requests go over keep-alive connections, each with up to
+ * {@code --pipeline} requests in flight, to the {@code --path}s in proportion
+ * to their weights. WebSocket connections send text frames at
+ * {@code --ws-rate} each alongside.
+ * <p>
+ * With {@code --rate} (requests per second over all connections) latency is
+ * measured from when each request was due, which accounts for coordinated
+ * omission directly. Without it every connection sends as fast as it gets
+ * answers, and the report adds a histogram corrected with HdrHistogram for
+ * the expected interval, {@code --expected-interval-us} or else the mean
+ * latency.
+ *
+ * @author gang
+ *
+ */
+public class LoadGenerator {
+	private String host = "localhost";
+	private int port = 8080;
+	private final List<String> paths = new ArrayList<String>();
+	private int connections = 16;
+	private int pipeline = 1;
+	private double rate;
+	private int threads;
+	private int warmup = 5;
+	private int duration = 30;
+	private long expectedIntervalMicros;
+	private String hgrm;
+
+	private String wsPath;
+	private int wsConnections;
+	private double wsRate = 10;
+	private int wsSize = 64;
+
+	public static void main(String[] args) throws Exception {
+		final LoadGenerator generator = new LoadGenerator();
+		try {
+			generator.parse(args);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println("options: --url --path <path>[=weight]... --connections --pipeline --rate --threads"
+					+ " --warmup --duration --expected-interval-us --hgrm <file>"
+					+ " --ws <path> --ws-connections --ws-rate --ws-size");
+			System.exit(2);
+		}
+		generator.run();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			final String name = args[i];
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("missing value for " + name);
+			final String value = args[++i];
+			switch (name) {
+			case "--url":
+				final URI uri = URI.create(value);
+				host = uri.getHost();
+				port = uri.getPort() < 0 ? 80 : uri.getPort();
+				break;
+			case "--path":
+				final int eq = value.lastIndexOf('=');
+				final int weight = eq < 0 ? 1 : Integer.parseInt(value.substring(eq + 1));
+				for (int w = 0; w < weight; w++)
+					paths.add(eq < 0 ? value : value.substring(0, eq));
+				break;
+			case "--connections":
+				connections = Integer.parseInt(value);
+				break;
+			case "--pipeline":
+				pipeline = Integer.parseInt(value);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(value);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--warmup":
+				warmup = Integer.parseInt(value);
+				break;
+			case "--duration":
+				duration = Integer.parseInt(value);
+				break;
+			case "--expected-interval-us":
+				expectedIntervalMicros = Long.parseLong(value);
+				break;
+			case "--hgrm":
+				hgrm = value;
+				break;
+			case "--ws":
+				wsPath = value;
+				break;
+			case "--ws-connections":
+				wsConnections = Integer.parseInt(value);
+				break;
+			case "--ws-rate":
+				wsRate = Double.parseDouble(value);
+				break;
+			case "--ws-size":
+				wsSize = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + name);
+			}
+		}
+		if (paths.isEmpty())
+			paths.add("/");
+		if (wsPath == null)
+			wsConnections = 0;
+	}
+
+	private void run() throws Exception {
+		final EventLoopGroup group = new NioEventLoopGroup(threads);
+		final byte[] text = new byte[wsSize];
+		Arrays.fill(text, (byte) 'x');
+		final ByteBuf payload = Unpooled.unreleasableBuffer(Unpooled.directBuffer(wsSize, wsSize).writeBytes(text));
+		final String hostHeader = port == 80 ? host : host + ":" + port;
+		final String[] pathMix = paths.toArray(new String[0]);
+		final double connectionRate = rate / connections;
+
+		final List<Channel> httpChannels = new ArrayList<Channel>();
+		final List<HttpLoadHandler> httpHandlers = new ArrayList<HttpLoadHandler>();
+		final List<Channel> wsChannels = new ArrayList<Channel>();
+		final List<WebSocketLoadHandler> wsHandlers = new ArrayList<WebSocketLoadHandler>();
+		try {
+			final Bootstrap b = new Bootstrap().group(group).channel(NioSocketChannel.class)
+					.option(ChannelOption.TCP_NODELAY, true);
+
+			for (int i = 0; i < connections; i++) {
+				final HttpLoadHandler handler = new HttpLoadHandler(hostHeader, pathMix, pipeline, connectionRate);
+				httpHandlers.add(handler);
+				httpChannels.add(b.clone().handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ch.pipeline().addLast(new HttpClientCodec(), handler);
+					}
+				}).connect(host, port).sync().channel());
+			}
+
+			for (int i = 0; i < wsConnections; i++) {
+				final WebSocketLoadHandler handler = new WebSocketLoadHandler(
+						WebSocketClientHandshakerFactory.newHandshaker(URI.create("ws://" + hostHeader + wsPath),
+								WebSocketVersion.V13, null, false, new DefaultHttpHeaders()),
+						payload, wsRate);
+				wsHandlers.add(handler);
+				wsChannels.add(b.clone().handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(8192), handler);
+					}
+				}).connect(host, port).sync().channel());
+			}
+
+			System.out.printf("%d HTTP connections (pipeline %d, %s), %d WebSocket connections, warming up %ds%n",
+					connections, pipeline, rate > 0 ? rate + " req/s" : "closed loop", wsConnections, warmup);
+			TimeUnit.SECONDS.sleep(warmup);
+			for (int i = 0; i < connections; i++) {
+				final HttpLoadHandler handler = httpHandlers.get(i);
+				onLoop(httpChannels.get(i), () -> {
+					handler.reset();
+					return null;
+				});
+			}
+			for (int i = 0; i < wsConnections; i++) {
+				final WebSocketLoadHandler handler = wsHandlers.get(i);
+				onLoop(wsChannels.get(i), () -> {
+					handler.reset();
+					return null;
+				});
+			}
+
+			final long start = System.nanoTime();
+			TimeUnit.SECONDS.sleep(duration);
+			final double seconds = (System.nanoTime() - start) / 1e9;
+
+			final Histogram latency = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+			long completed = 0;
+			long errors = 0;
+			for (int i = 0; i < connections; i++) {
+				final HttpLoadHandler handler = httpHandlers.get(i);
+				final Histogram h = onLoop(httpChannels.get(i), () -> {
+					handler.stop();
+					return handler.histogram.copy();
+				});
+				latency.add(h);
+				completed += handler.completed;
+				errors += handler.errors;
+			}
+			final Histogram handshakes = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+			long wsSent = 0;
+			long wsReceived = 0;
+			long wsErrors = 0;
+			for (int i = 0; i < wsConnections; i++) {
+				final WebSocketLoadHandler handler = wsHandlers.get(i);
+				handshakes.add(onLoop(wsChannels.get(i), () -> {
+					handler.stop();
+					return handler.histogram.copy();
+				}));
+				wsSent += handler.sent;
+				wsReceived += handler.received;
+				wsErrors += handler.errors;
+			}
+
+			System.out.printf("%nHTTP: %d requests in %.1fs, %.0f req/s, %d errors%n", completed, seconds,
+					completed / seconds, errors);
+			print("latency", latency);
+			if (rate <= 0 && latency.getTotalCount() > 0) {
+				final long interval = expectedIntervalMicros > 0 ? expectedIntervalMicros
+						: Math.max(1, (long) latency.getMean());
+				print("corrected", latency.copyCorrectedForCoordinatedOmission(interval));
+			}
+			if (wsConnections > 0) {
+				System.out.printf("%nWebSocket: %d frames sent (%.0f/s), %d received, %d errors%n", wsSent,
+						wsSent / seconds, wsReceived, wsErrors);
+				print("handshake", handshakes);
+			}
+
+			if (hgrm != null) {
+				try (PrintStream out = new PrintStream(new FileOutputStream(hgrm), false, "UTF-8")) {
+					latency.outputPercentileDistribution(out, 1000.0);
+				}
+			}
+
+			for (Channel ch : httpChannels)
+				ch.closeFuture().await(5, TimeUnit.SECONDS);
+			for (Channel ch : wsChannels)
+				ch.closeFuture().await(5, TimeUnit.SECONDS);
+		} finally {
+			group.shutdownGracefully();
+		}
+	}
+
+	/**
+	 * Runs a task on the channel's event loop, where its handler's state lives.
+	 */
+	private static <T> T onLoop(Channel ch, Callable<T> task) throws InterruptedException, IOException {
+		try {
+			return ch.eventLoop().submit(task).get();
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Prints the percentiles of a histogram of microseconds in milliseconds.
+	 */
+	private static void print(String title, Histogram h) {
+		System.out.printf("  %-10s p50 %8.3f  p90 %8.3f  p99 %8.3f  p99.9 %8.3f  p99.99 %8.3f  max %8.3f ms%n", title,
+				h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+				h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+				h.getValueAtPercentile(99.99) / 1000.0, h.getMaxValue() / 1000.0);
+	}
+}
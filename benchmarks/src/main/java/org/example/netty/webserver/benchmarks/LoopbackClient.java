@@ -0,0 +1,80 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal blocking HTTP/1.1 client on one keep-alive connection, so that
+ * benchmarks measure the server rather than a client library.
+ *
+ * @author gang
+ *
+ */
+public class LoopbackClient implements Closeable {
+	private final Socket socket;
+	private final OutputStream out;
+	private final InputStream in;
+	private final byte[] request;
+
+	public LoopbackClient(InetSocketAddress address, String path) throws IOException {
+		socket = new Socket(address.getAddress(), address.getPort());
+		socket.setTcpNoDelay(true);
+		out = socket.getOutputStream();
+		in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+		request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Sends the request and reads the whole response.
+	 *
+	 * @return the status code
+	 */
+	public int get() throws IOException {
+		out.write(request);
+		out.flush();
+		return readResponse();
+	}
+
+	private int readResponse() throws IOException {
+		final String statusLine = readLine();
+		final int status = Integer.parseInt(statusLine.substring(9, 12));
+		long contentLength = 0;
+		for (String line; !(line = readLine()).isEmpty();) {
+			if (line.regionMatches(true, 0, "content-length:", 0, 15))
+				contentLength = Long.parseLong(line.substring(15).trim());
+		}
+		while (contentLength > 0) {
+			long skipped = in.skip(contentLength);
+			if (skipped <= 0) {
+				if (in.read() < 0)
+					throw new EOFException();
+				skipped = 1;
+			}
+			contentLength -= skipped;
+		}
+		return status;
+	}
+
+	private String readLine() throws IOException {
+		final StringBuilder sb = new StringBuilder(64);
+		for (int c; (c = in.read()) != '\n';) {
+			if (c < 0)
+				throw new EOFException();
+			if (c != '\r')
+				sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,120 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.HttpRequestHandler;
+import org.example.netty.webserver.Route;
+import org.example.netty.webserver.RouteTable;
+import org.example.netty.webserver.util.StaticFileCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * A request through {@link HttpRequestHandler} and the response encoder on an
+ * {@link EmbeddedChannel}, without sockets: a small text body, and a static
+ * file from disk and from the {@link StaticFileCache}.
+ *
+ * @author gang
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+	@Param({ "1024", "65536" })
+	public int fileSize;
+
+	File file;
+	StaticFileCache cache;
+	EmbeddedChannel channel;
+	EmbeddedChannel cachedChannel;
+
+	final FullHttpRequest helloRequest = request("/hello");
+	final FullHttpRequest fileRequest = request("/file");
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("bench", ".bin");
+		final byte[] content = new byte[fileSize];
+		Arrays.fill(content, (byte) 'x');
+		Files.write(file.toPath(), content);
+
+		final RouteTable table = new RouteTable();
+		table.addRoute(new Route(HttpMethod.GET, "/hello", request -> "world"));
+		table.addRoute(new Route(HttpMethod.GET, "/file", request -> file));
+
+		channel = new EmbeddedChannel(new HttpResponseEncoder(), new HttpRequestHandler(table));
+		cache = new StaticFileCache(16 * 1024 * 1024, 1024 * 1024);
+		cachedChannel = new EmbeddedChannel(new HttpResponseEncoder(), new HttpRequestHandler(table));
+		cachedChannel.attr(StaticFileCache.KEY).set(cache);
+	}
+
+	@TearDown
+	public void tearDown() {
+		channel.finishAndReleaseAll();
+		cachedChannel.finishAndReleaseAll();
+		cache.close();
+		file.delete();
+	}
+
+	private static FullHttpRequest request(String uri) {
+		return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri, Unpooled.EMPTY_BUFFER);
+	}
+
+	@Benchmark
+	public long text() {
+		return exchange(channel, helloRequest);
+	}
+
+	@Benchmark
+	public long staticFile() {
+		return exchange(channel, fileRequest);
+	}
+
+	@Benchmark
+	public long staticFileCached() {
+		return exchange(cachedChannel, fileRequest);
+	}
+
+	private static long exchange(EmbeddedChannel channel, FullHttpRequest request) {
+		channel.writeInbound(request.retainedDuplicate());
+
+		long bytes = 0;
+		for (Object msg; (msg = channel.readOutbound()) != null;) {
+			if (msg instanceof ByteBuf)
+				bytes += ((ByteBuf) msg).readableBytes();
+			else if (msg instanceof FileRegion)
+				bytes += ((FileRegion) msg).count();
+			ReferenceCountUtil.release(msg);
+		}
+		return bytes;
+	}
+}
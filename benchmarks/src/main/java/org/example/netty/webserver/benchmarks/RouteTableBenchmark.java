@@ -0,0 +1,71 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.Handler;
+import org.example.netty.webserver.Route;
+import org.example.netty.webserver.RouteTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * {@link RouteTable#findRoute} with 10, 100 and 1,000 routes, half literal and
+ * half templates with a path parameter, looking up the last registered of
+ * each kind and a miss.
+ *
+ * @author gang
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteTableBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int routes;
+
+	RouteTable table;
+	String literal;
+	String template;
+
+	@Setup
+	public void setup() {
+		final Handler handler = request -> "ok";
+		table = new RouteTable();
+		for (int i = 0; i < routes / 2; i++) {
+			table.addRoute(new Route(HttpMethod.GET, "/api/v1/resource" + i + "/list", handler));
+			table.addRoute(new Route(HttpMethod.GET, "/api/v1/resource" + i + "/{id:long}", handler));
+		}
+		final int last = routes / 2 - 1;
+		literal = "/api/v1/resource" + last + "/list";
+		template = "/api/v1/resource" + last + "/1234567?fields=name";
+	}
+
+	@Benchmark
+	public Route literal() {
+		return table.findRoute(HttpMethod.GET, literal);
+	}
+
+	@Benchmark
+	public Route template() {
+		return table.findRoute(HttpMethod.GET, template);
+	}
+
+	@Benchmark
+	public Route miss() {
+		return table.findRoute(HttpMethod.GET, "/api/v2/unknown");
+	}
+}
@@ -0,0 +1,90 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.HttpServer;
+import org.example.netty.webserver.HttpServerConfig;
+import org.example.netty.webserver.HttpServerConfig.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Keep-alive GET /hello throughput of each transport over loopback, one
+ * connection per benchmark thread. A transport that is not available on the
+ * machine falls back as in production, so its setup fails and JMH reports
+ * an error for that run instead of measuring the fallback twice.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar TransportBenchmark transports.json
+ * </pre>
+ *
+ * @author gang
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TransportBenchmark {
+	static final int PORT = 18090;
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		@Param({ "NIO", "EPOLL", "IO_URING" })
+		public Transport transport;
+
+		HttpServer server;
+
+		@Setup(Level.Trial)
+		public void start() {
+			server = new HttpServer(new HttpServerConfig().setTransport(transport));
+			if (server.getTransport() != transport) {
+				server.close();
+				throw new IllegalStateException(transport + " is not available here");
+			}
+			server.get("/hello", request -> "world");
+			server.start(new InetSocketAddress(PORT));
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			server.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Connection {
+		LoopbackClient client;
+
+		@Setup(Level.Trial)
+		public void open(Server server) throws IOException {
+			client = new LoopbackClient(new InetSocketAddress("localhost", PORT), "/hello");
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public int hello(Connection connection) throws IOException {
+		return connection.client.get();
+	}
+}
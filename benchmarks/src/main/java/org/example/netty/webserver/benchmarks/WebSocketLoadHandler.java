@@ -0,0 +1,124 @@
+package org.example.netty.webserver.benchmarks;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Opens one WebSocket and sends text frames of a fixed size at a fixed rate.
+ * The handshake latency goes into the histogram; frames sent and received are
+ * counted, since the server does not answer them one by one.
+ *
+ * @author gang
+ *
+ */
+class WebSocketLoadHandler extends ChannelInboundHandlerAdapter {
+	private final WebSocketClientHandshaker handshaker;
+	private final ByteBuf payload;
+	private final long intervalNanos;
+
+	final Histogram histogram = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+	long sent;
+	long received;
+	long errors;
+
+	private ChannelHandlerContext ctx;
+	private ScheduledFuture<?> ticker;
+	private long handshakeStart;
+	private boolean stopping;
+
+	/**
+	 * @param payload the frame content, shared and never released here
+	 * @param rate frames per second
+	 */
+	WebSocketLoadHandler(WebSocketClientHandshaker handshaker, ByteBuf payload, double rate) {
+		this.handshaker = handshaker;
+		this.payload = payload;
+		this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(rate, 0.001));
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+		handshakeStart = System.nanoTime();
+		handshaker.handshake(ctx.channel());
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		try {
+			if (!handshaker.isHandshakeComplete()) {
+				handshaker.finishHandshake(ctx.channel(), (FullHttpResponse) msg);
+				histogram.recordValue(Math.min(histogram.getHighestTrackableValue(),
+						TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - handshakeStart)));
+				ticker = ctx.executor().scheduleAtFixedRate(this::send, intervalNanos, intervalNanos,
+						TimeUnit.NANOSECONDS);
+			} else if (msg instanceof PingWebSocketFrame) {
+				ctx.writeAndFlush(new PongWebSocketFrame(((PingWebSocketFrame) msg).content().retain()));
+			} else if (msg instanceof CloseWebSocketFrame) {
+				ctx.close();
+			} else if (msg instanceof WebSocketFrame) {
+				received++;
+			}
+		} finally {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+
+	private void send() {
+		if (stopping)
+			return;
+		// don't let an unwritable connection queue up frames without bound
+		if (!ctx.channel().isWritable())
+			return;
+		ctx.writeAndFlush(new TextWebSocketFrame(payload.retainedDuplicate()), ctx.voidPromise());
+		sent++;
+	}
+
+	void reset() {
+		sent = 0;
+		received = 0;
+		errors = 0;
+	}
+
+	/**
+	 * Stops sending and closes the WebSocket cleanly.
+	 */
+	void stop() {
+		stopping = true;
+		if (ticker != null)
+			ticker.cancel(false);
+		if (ctx != null && ctx.channel().isActive())
+			ctx.writeAndFlush(new CloseWebSocketFrame()).addListener(f -> ctx.close());
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (!stopping)
+			errors++;
+		stopping = true;
+		if (ticker != null)
+			ticker.cancel(false);
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		errors++;
+		ctx.close();
+	}
+}
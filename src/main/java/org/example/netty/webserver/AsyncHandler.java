@@ -0,0 +1,29 @@
+package org.example.netty.webserver;
+
+import java.util.concurrent.CompletionStage;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * A {@link Handler} that does not block: the server writes the response when
+ * the returned stage completes. A plain {@link Handler} may also return a
+ * {@link CompletionStage} or a Netty {@link io.netty.util.concurrent.Future}.
+ * <p>
+ * If the route has a {@link RouteOptions#timeout timeout} and the stage is not
+ * complete in time, the client gets 504 Gateway Timeout. In that case, and
+ * when the client disconnects first, the stage is cancelled.
+ */
+@FunctionalInterface
+public interface AsyncHandler extends Handler {
+	CompletionStage<?> handleAsync(HttpRequest request, PathParams params) throws Exception;
+
+	@Override
+	default Object handle(HttpRequest request) throws Exception {
+		return handleAsync(request, PathParams.EMPTY);
+	}
+
+	@Override
+	default Object handle(HttpRequest request, PathParams params) throws Exception {
+		return handleAsync(request, params);
+	}
+}
@@ -0,0 +1,32 @@
+package org.example.netty.webserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * Receives one streamed request body, chunk by chunk, see
+ * {@link StreamingHandler}. Calls for one request never overlap and arrive in
+ * order, either on the event loop or on the route's {@link HandlerExecutor}.
+ */
+public interface BodyConsumer {
+	/**
+	 * @param chunk the next part of the body; released by the server when this
+	 *            method returns, so retain it to keep it
+	 */
+	void content(ByteBuf chunk) throws Exception;
+
+	/**
+	 * Called after the last chunk.
+	 *
+	 * @param trailers the trailing headers, usually empty
+	 * @return the response, as for {@link Handler#handle}
+	 */
+	Object end(HttpHeaders trailers) throws Exception;
+
+	/**
+	 * Called instead of {@link #end} when the request fails or the client goes
+	 * away mid-body.
+	 */
+	default void abort(Throwable cause) {
+	}
+}
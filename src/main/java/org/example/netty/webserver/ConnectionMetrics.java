@@ -0,0 +1,123 @@
+package org.example.netty.webserver;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * Connection reuse counters of a server: connections opened and closed, why
+ * they were closed, and how many requests each served before closing. All
+ * counters are {@link LongAdder}s, so event loops never contend on them.
+ *
+ * @author gang
+ *
+ */
+public class ConnectionMetrics {
+	/** Why a connection was closed. */
+	public enum CloseReason {
+		/** the client closed it or it was reset */
+		CLIENT,
+		/** the server closed it after a response without keep-alive */
+		SERVER,
+		/** the server closed it after an error */
+		ERROR,
+		/**
+		 * the server reaped it after it was idle for too long, see
+		 * {@link HttpServerConfig#setIdleTimeouts} and
+		 * {@link IdleConnectionHandler}
+		 */
+		IDLE,
+		/** the server closed a WebSocket that did not keep up with its frames */
+		SLOW_CONSUMER,
+		/** the server closed a WebSocket whose peer did not answer a ping */
+		HEARTBEAT
+	}
+
+	/** upper bounds of the requests-per-connection buckets; the last is unbounded */
+	public static final long[] REQUESTS_PER_CONNECTION_BOUNDS = { 0, 1, 2, 5, 10, 20, 50, 100, 1000 };
+
+	static final AttributeKey<CloseReason> CLOSE_REASON = AttributeKey.valueOf(ConnectionMetrics.class,
+			"closeReason");
+
+	private final LongAdder opened = new LongAdder();
+	private final LongAdder closed = new LongAdder();
+	private final LongAdder requests = new LongAdder();
+	private final Map<CloseReason, LongAdder> closes = new EnumMap<CloseReason, LongAdder>(CloseReason.class);
+	private final LongAdder[] requestsPerConnection = new LongAdder[REQUESTS_PER_CONNECTION_BOUNDS.length + 1];
+
+	public ConnectionMetrics() {
+		for (CloseReason reason : CloseReason.values())
+			closes.put(reason, new LongAdder());
+		for (int i = 0; i < requestsPerConnection.length; i++)
+			requestsPerConnection[i] = new LongAdder();
+	}
+
+	/**
+	 * Records why the server is about to close a channel; the first reason
+	 * given wins. Closes that are not marked count as {@link CloseReason#SERVER}
+	 * when the server initiated them and {@link CloseReason#CLIENT} otherwise.
+	 */
+	public static void closing(Channel channel, CloseReason reason) {
+		channel.attr(CLOSE_REASON).setIfAbsent(reason);
+	}
+
+	void opened() {
+		opened.increment();
+	}
+
+	void request() {
+		requests.increment();
+	}
+
+	void closed(CloseReason reason, long requestCount) {
+		closed.increment();
+		closes.get(reason).increment();
+
+		int bucket = 0;
+		while (bucket < REQUESTS_PER_CONNECTION_BOUNDS.length && requestCount > REQUESTS_PER_CONNECTION_BOUNDS[bucket])
+			bucket++;
+		requestsPerConnection[bucket].increment();
+	}
+
+	public long getOpened() {
+		return opened.sum();
+	}
+
+	public long getClosed() {
+		return closed.sum();
+	}
+
+	public long getActive() {
+		return opened.sum() - closed.sum();
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getCloses(CloseReason reason) {
+		return closes.get(reason).sum();
+	}
+
+	/**
+	 * @return closed connections per bucket of
+	 *         {@link #REQUESTS_PER_CONNECTION_BOUNDS}, plus one for larger counts
+	 */
+	public long[] getRequestsPerConnection() {
+		final long[] counts = new long[requestsPerConnection.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = requestsPerConnection[i].sum();
+		return counts;
+	}
+
+	/**
+	 * @return the average number of requests per opened connection
+	 */
+	public double getReuse() {
+		final long n = opened.sum();
+		return n == 0 ? 0 : (double) requests.sum() / n;
+	}
+}
@@ -0,0 +1,52 @@
+package org.example.netty.webserver;
+
+import org.example.netty.webserver.ConnectionMetrics.CloseReason;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * Sits right behind the HTTP codec of every connection and feeds its lifetime
+ * into the server's {@link ConnectionMetrics}. One instance per channel.
+ *
+ * @author gang
+ *
+ */
+class ConnectionMetricsHandler extends ChannelDuplexHandler {
+	private final ConnectionMetrics metrics;
+	private long requests;
+
+	ConnectionMetricsHandler(ConnectionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		metrics.opened();
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof HttpRequest) {
+			requests++;
+			metrics.request();
+		}
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+		ConnectionMetrics.closing(ctx.channel(), CloseReason.SERVER);
+		super.close(ctx, promise);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		CloseReason reason = ctx.channel().attr(ConnectionMetrics.CLOSE_REASON).get();
+		metrics.closed(reason != null ? reason : CloseReason.CLIENT, requests);
+		super.channelInactive(ctx);
+	}
+}
@@ -0,0 +1,221 @@
+package org.example.netty.webserver;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Watches the health of the event loops of a group. Every loop runs a probe
+ * task at a fixed interval; how late it runs is the loop's lag, the time any
+ * task or I/O event waits before the loop gets to it. A watchdog thread checks
+ * the probes, and when one is overdue by more than the blocking threshold the
+ * loop is stuck in a task, typically a handler doing blocking work: that is
+ * counted and the loop thread's stack is logged once per episode, showing the
+ * culprit.
+ *
+ * @author gang
+ *
+ */
+public class EventLoopMonitor implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(EventLoopMonitor.class);
+
+	private static final int MAX_STACK_FRAMES = 32;
+
+	private final List<Loop> loops;
+	private final long intervalNanos;
+	private final long thresholdNanos;
+	private Thread watchdog;
+	private volatile boolean closed;
+
+	/**
+	 * @param group the event loops to watch
+	 * @param intervalMillis how often each loop runs the probe
+	 * @param blockingThresholdMillis how long a loop may be stuck before it
+	 *            counts as blocked
+	 */
+	public EventLoopMonitor(EventLoopGroup group, long intervalMillis, long blockingThresholdMillis) {
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(blockingThresholdMillis);
+		final List<Loop> loops = new ArrayList<Loop>();
+		for (EventExecutor executor : group)
+			loops.add(new Loop(loops.size(), executor));
+		this.loops = Collections.unmodifiableList(loops);
+	}
+
+	public synchronized void start() {
+		if (watchdog != null)
+			return;
+		for (Loop loop : loops)
+			loop.start();
+		watchdog = new DefaultThreadFactory("event-loop-monitor", true).newThread(this::watch);
+		watchdog.start();
+	}
+
+	/**
+	 * @return the watched loops, in the order of the group
+	 */
+	public List<Loop> getLoops() {
+		return loops;
+	}
+
+	private void watch() {
+		final long sleepMillis = Math.max(10,
+				TimeUnit.NANOSECONDS.toMillis(Math.min(intervalNanos, thresholdNanos / 2)));
+		while (!closed) {
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			final long now = System.nanoTime();
+			for (Loop loop : loops)
+				loop.check(now);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			if (watchdog != null)
+				watchdog.interrupt();
+		}
+	}
+
+	/**
+	 * One event loop and its counters.
+	 */
+	public final class Loop {
+		private final int index;
+		private final EventExecutor executor;
+		private volatile Thread thread;
+		/** when the next probe should run */
+		private volatile long due;
+		/**
+		 * the {@link #due} of the last probe reported as overdue; each probe
+		 * is claimed with a compareAndSet, so a stall is reported once
+		 */
+		private final AtomicLong reportedDue = new AtomicLong(Long.MIN_VALUE);
+
+		private final LongAdder[] lag = new LongAdder[RouteMetrics.LATENCY_BOUNDS_MICROS.length + 1];
+		private final LongAdder lagNanos = new LongAdder();
+		private final LongAdder blocked = new LongAdder();
+
+		Loop(int index, EventExecutor executor) {
+			this.index = index;
+			this.executor = executor;
+			for (int i = 0; i < lag.length; i++)
+				lag[i] = new LongAdder();
+		}
+
+		void start() {
+			due = Long.MAX_VALUE;
+			try {
+				executor.execute(() -> thread = Thread.currentThread());
+			} catch (RejectedExecutionException ex) {
+				return;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			due = System.nanoTime() + intervalNanos;
+			try {
+				executor.schedule(this::probe, intervalNanos, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException ex) {
+				// the loop is shutting down
+				due = Long.MAX_VALUE;
+			}
+		}
+
+		private void probe() {
+			final long due = this.due;
+			final long nanos = Math.max(0, System.nanoTime() - due);
+			final long micros = nanos / 1000;
+			int bucket = 0;
+			final long[] bounds = RouteMetrics.LATENCY_BOUNDS_MICROS;
+			while (bucket < bounds.length && micros > bounds[bucket])
+				bucket++;
+			lag[bucket].increment();
+			lagNanos.add(nanos);
+
+			if (reportedDue.get() == due)
+				logger.info("Event loop {} is running again after {} ms", index, TimeUnit.NANOSECONDS.toMillis(nanos));
+			if (!closed && !executor.isShuttingDown())
+				schedule();
+		}
+
+		void check(long now) {
+			final long due = this.due;
+			final long overdue = now - due;
+			if (overdue < thresholdNanos)
+				return;
+			final long previous = reportedDue.get();
+			if (previous == due || !reportedDue.compareAndSet(previous, due))
+				return;
+			blocked.increment();
+
+			final Thread t = thread;
+			final StringBuilder sb = new StringBuilder(1024);
+			if (t != null) {
+				final StackTraceElement[] stack = t.getStackTrace();
+				for (int i = 0; i < stack.length && i < MAX_STACK_FRAMES; i++)
+					sb.append("\n\tat ").append(stack[i]);
+			}
+			logger.warn("Event loop {} ({}) has been blocked for {} ms with {} pending tasks:{}", index,
+					t != null ? t.getName() : "not started", TimeUnit.NANOSECONDS.toMillis(overdue),
+					getPendingTasks(), sb);
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the tasks waiting to run on the loop, or -1 when the loop
+		 *         does not tell
+		 */
+		public int getPendingTasks() {
+			return executor instanceof SingleThreadEventExecutor
+					? ((SingleThreadEventExecutor) executor).pendingTasks() : -1;
+		}
+
+		/**
+		 * @return probes per bucket of {@link RouteMetrics#LATENCY_BOUNDS_MICROS}
+		 *         by how late they ran, plus one for later ones
+		 */
+		public long[] getLag() {
+			final long[] counts = new long[lag.length];
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = lag[i].sum();
+			return counts;
+		}
+
+		/**
+		 * @return the summed lag of all probes in nanoseconds
+		 */
+		public long getLagNanos() {
+			return lagNanos.sum();
+		}
+
+		/**
+		 * @return how often the loop was found blocked
+		 */
+		public long getBlocked() {
+			return blocked.sum();
+		}
+	}
+}
@@ -5,4 +5,12 @@ import io.netty.handler.codec.http.HttpResponse;
 
 public interface Handler {
 	Object handle(HttpRequest request) throws Exception;
+
+	/**
+	 * Called by the server with the parameters of the matched route. Handlers
+	 * that need them implement {@link PathHandler} instead.
+	 */
+	default Object handle(HttpRequest request, PathParams params) throws Exception {
+		return handle(request);
+	}
 }
@@ -0,0 +1,139 @@
+package org.example.netty.webserver;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Runs blocking {@link Handler}s off the event loop. Both kinds of executor are
+ * bounded: once {@code maxPending} tasks are queued or running, further tasks
+ * are rejected and the request is answered with 503 Service Unavailable.
+ * <p>
+ * Executors may be shared by several routes; whoever creates one closes it.
+ *
+ * @author gang
+ *
+ */
+public class HandlerExecutor implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(HandlerExecutor.class);
+
+	private final String name;
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final int maxPending;
+
+	private HandlerExecutor(String name, ExecutorService executor, int maxPending) {
+		this.name = name;
+		this.executor = executor;
+		this.permits = new Semaphore(maxPending);
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * A fixed pool of daemon threads.
+	 *
+	 * @param name thread name prefix
+	 * @param threads number of worker threads
+	 * @param maxQueued tasks that may wait for a thread before requests are rejected
+	 */
+	public static HandlerExecutor bounded(String name, int threads, int maxQueued) {
+		final int maxPending = threads + maxQueued;
+		// the permits are the bound: a task releases its permit before its
+		// thread takes the next one off the queue, so the queue must hold them all
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, maxPending)), new DefaultThreadFactory(name, true),
+				new ThreadPoolExecutor.AbortPolicy());
+		return new HandlerExecutor(name, pool, maxPending);
+	}
+
+	/**
+	 * One virtual thread per request, at most {@code maxConcurrent} at a time.
+	 * On JVMs without virtual threads this falls back to a bounded pool of
+	 * {@code 2 * cores} threads queueing up to {@code maxConcurrent} tasks.
+	 */
+	public static HandlerExecutor virtualThreads(String name, int maxConcurrent) {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor == null) {
+			logger.info("Virtual threads not supported, {} uses a bounded pool", name);
+			return bounded(name, 2 * Runtime.getRuntime().availableProcessors(), maxConcurrent);
+		}
+		return new HandlerExecutor(name, executor, maxConcurrent);
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+	private static Method findVirtualThreadFactory() {
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (VIRTUAL_THREAD_FACTORY == null)
+			return null;
+		try {
+			return (ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// e.g. preview feature not enabled
+			logger.debug("newVirtualThreadPerTaskExecutor", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @throws RejectedExecutionException when the executor is saturated or closed
+	 */
+	public void execute(final Runnable task) {
+		if (!permits.tryAcquire())
+			throw new RejectedExecutionException(name + " saturated");
+
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					permits.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return tasks queued or running
+	 */
+	public int getPending() {
+		return maxPending - permits.availablePermits();
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
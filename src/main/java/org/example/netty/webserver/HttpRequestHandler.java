@@ -1,20 +1,26 @@
 package org.example.netty.webserver;
 
 import java.io.File;
-import java.nio.charset.StandardCharsets;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import org.example.netty.webserver.util.ETags;
+import org.example.netty.webserver.util.HttpDate;
 import org.example.netty.webserver.util.HttpStaticFileHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -23,22 +29,49 @@ import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
 
 public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 	private static final Logger logger = LoggerFactory.getLogger(HttpRequestHandler.class);
 	
 	public static final String TYPE_PLAIN = "text/plain; charset=UTF-8";
 	public static final String TYPE_JSON = "application/json; charset=UTF-8";
+	public static final String TYPE_OCTET_STREAM = "application/octet-stream";
 	public static final String SERVER_NAME = "Netty";
 
+	// pre-encoded header values, copied into the response without conversion
+	private static final AsciiString SERVER_NAME_VALUE = AsciiString.cached(SERVER_NAME);
+	private static final AsciiString TYPE_PLAIN_VALUE = AsciiString.cached(TYPE_PLAIN);
+	private static final AsciiString TYPE_JSON_VALUE = AsciiString.cached(TYPE_JSON);
+	private static final AsciiString TYPE_OCTET_STREAM_VALUE = AsciiString.cached(TYPE_OCTET_STREAM);
+
+	private static final int MAX_BYTES_PER_CHAR_UTF8 = 3;
+
 	private RouteTable routeTable;
 
+	private final HttpServerConfig config;
+
+	private final ServerMetrics metrics;
+
 	public HttpRequestHandler(RouteTable r) {
+		this(r, new HttpServerConfig(), new ServerMetrics());
+	}
+
+	public HttpRequestHandler(RouteTable r, HttpServerConfig config, ServerMetrics metrics) {
 		this.routeTable = r;
+		this.config = config;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -50,6 +83,7 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 		logger.debug("Connection to {} closed", ctx.channel().remoteAddress());
+		ResponseSequencer.of(ctx.channel()).close();
 		super.channelInactive(ctx);
 	}
 
@@ -61,31 +95,356 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 
 		final HttpMethod method = request.getMethod();
 		final String uri = request.getUri();
+		final ResponseSequencer sequencer = ResponseSequencer.of(ctx.channel());
+		final int seq = sequencer.acquire();
 
 		final Route route = this.routeTable.findRoute(method, uri);
 		if (route == null) {
-			sendNotFound(ctx, request);
+			sequencer.complete(seq, () -> sendNotFound(ctx, request));
+			return;
+		}
+		RouteMetricsHandler.matched(ctx.channel(), route);
+
+		if (route.isStreaming()) {
+			// only reachable without a StreamingRequestHandler in the pipeline
+			sequencer.complete(seq, () -> sendInternalServerError(ctx, request));
 			return;
 		}
 
+		if (route.isWebSocket()) {
+			if (!isWebSocketUpgrade(request)) {
+				sequencer.complete(seq, () -> sendUpgradeRequired(ctx, request));
+				return;
+			}
+			// handed on to the handshake once the earlier responses are out
+			request.retain();
+			sequencer.complete(seq, () -> upgrade(ctx, request, route));
+			return;
+		}
+
+		final PathParams params = route.extractParams(uri);
+		final HandlerExecutor executor = route.getOptions().getExecutor();
+		if (executor == null) {
+			try {
+				respond(ctx, request, seq, route, route.getHandler().handle(request, params));
+			} catch (final Exception ex) {
+				logger.warn("", ex);
+				sequencer.complete(seq, () -> sendInternalServerError(ctx, request));
+			}
+			return;
+		}
+
+		// released once the response has been written on the event loop
+		request.retain();
 		try {
-			final Object obj = route.getHandler().handle(request);
-			if (obj instanceof File) {
-				File file = (File) obj;
-				writeFile(ctx, request, file);
+			executor.execute(() -> invokeOffLoop(ctx, request, seq, route, params));
+		} catch (final RejectedExecutionException ex) {
+			logger.debug("{} rejected {}", executor.getName(), uri);
+			request.release();
+			sequencer.complete(seq, () -> sendServiceUnavailable(ctx, request));
+		}
+	}
+
+	private static boolean isWebSocketUpgrade(final HttpRequest request) {
+		final HttpHeaders headers = request.headers();
+		return headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true)
+				&& headers.contains(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true);
+	}
+
+	/**
+	 * Installs the WebSocket handlers behind this one and passes them the
+	 * request, which takes over its reference. The handshake then replaces
+	 * the HTTP codec, aggregator and compressor, and the
+	 * {@link WebSocketFrameHandler} removes the HTTP request handlers, so
+	 * connections that are never upgraded carry none of this.
+	 */
+	private void upgrade(final ChannelHandlerContext ctx, final FullHttpRequest request, final Route route) {
+		final Channel ch = ctx.channel();
+		ch.config().setWriteBufferWaterMark(new WriteBufferWaterMark(config.getWebSocketWriteBufferLow(),
+				config.getWebSocketWriteBufferHigh()));
+
+		// each one is added right behind this handler, so in reverse order
+		final ChannelPipeline pipeline = ctx.pipeline();
+		pipeline.addAfter(ctx.name(), null,
+				new WebSocketFrameHandler(route.getWebSocketHandler(), route.extractParams(request.uri())));
+		// reassembles messages sent as continuation frames
+		pipeline.addAfter(ctx.name(), null, new WebSocketFrameAggregator(config.getMaxContentLength()));
+		pipeline.addAfter(ctx.name(), null, new SlowConsumerHandler(config.getSlowConsumerPolicy(),
+				config.getSlowConsumerGracePeriod(), metrics.getWebSockets()));
+		// the exact URI, so that a query string does not fail the path check
+		pipeline.addAfter(ctx.name(), null,
+				new WebSocketServerProtocolHandler(request.uri(), null, config.isWebSocketCompression()));
+		if (config.isWebSocketCompression()) {
+			pipeline.addAfter(ctx.name(), null, new WebSocketServerCompressionHandler());
+		}
+		if (config.getWebSocketPingInterval() > 0) {
+			// heartbeats take over from the HTTP idle timeouts
+			final IdleStateHandler idle = new IdleStateHandler(config.getWebSocketPingInterval(), 0, 0,
+					TimeUnit.MILLISECONDS);
+			if (pipeline.get(IdleStateHandler.class) != null) {
+				pipeline.replace(IdleStateHandler.class, null, idle);
 			} else {
-				final String content = obj == null ? "" : obj.toString();
-				writeResponse(ctx, request, HttpResponseStatus.OK, TYPE_PLAIN, content);
+				pipeline.addFirst(idle);
+			}
+			if (pipeline.get(IdleConnectionHandler.class) != null) {
+				pipeline.remove(IdleConnectionHandler.class);
 			}
+			pipeline.addAfter(ctx.name(), null, new WebSocketHeartbeatHandler());
+		}
+
+		ctx.fireChannelRead(request);
+	}
+
+	/**
+	 * Runs the handler on a {@link HandlerExecutor} thread, then hops back to
+	 * the channel's event loop to write the response.
+	 */
+	private void invokeOffLoop(final ChannelHandlerContext ctx, final FullHttpRequest request, final int seq,
+			final Route route, final PathParams params) {
+		Object result = null;
+		Exception failure = null;
+		try {
+			result = route.getHandler().handle(request, params);
+		} catch (final Exception ex) {
+			failure = ex;
+		}
+
+		final Object obj = result;
+		final Exception ex = failure;
+		try {
+			ctx.executor().execute(() -> {
+				try {
+					if (ex != null) {
+						logger.warn("", ex);
+						ResponseSequencer.of(ctx.channel()).complete(seq, () -> sendInternalServerError(ctx, request));
+					} else {
+						respond(ctx, request, seq, route, obj);
+					}
+				} finally {
+					request.release();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// event loop shut down
+			request.release();
+		}
+	}
+
+	/**
+	 * Writes the value returned by a {@link Handler} in request order, or waits
+	 * for it without blocking when it is a {@link CompletionStage} or a Netty
+	 * {@link Future}. Runs on the event loop.
+	 */
+	private void respond(final ChannelHandlerContext ctx, final FullHttpRequest request, final int seq,
+			final Route route, final Object result) {
+		if (result instanceof CompletionStage) {
+			final CompletionStage<?> stage = (CompletionStage<?>) result;
+			final AsyncResponse pending = new AsyncResponse(ctx, request, seq, route, stage, null);
+			stage.whenComplete((value, cause) -> pending.completeOnEventLoop(value, cause));
+		} else if (result instanceof Future) {
+			final Future<?> future = (Future<?>) result;
+			final AsyncResponse pending = new AsyncResponse(ctx, request, seq, route, null, future);
+			future.addListener(f -> pending.completeOnEventLoop(f.getNow(), f.cause()));
+		} else {
+			ResponseSequencer.of(ctx.channel()).complete(seq,
+					() -> writeResultOrError(ctx, request, result, route.getOptions()));
+		}
+	}
+
+	/**
+	 * Like {@link #writeResult}, answering with 500 when that fails.
+	 */
+	static void writeResultOrError(final ChannelHandlerContext ctx, final HttpRequest request, final Object obj,
+			final RouteOptions options) {
+		try {
+			writeResult(ctx, request, obj, options);
 		} catch (final Exception ex) {
 			logger.warn("", ex);
 			sendInternalServerError(ctx, request);
 		}
 	}
 
+	/**
+	 * A response waiting for an asynchronous handler. Whichever comes first of
+	 * completion, timeout and channel close wins; all state changes happen on
+	 * the event loop.
+	 */
+	private static final class AsyncResponse implements ChannelFutureListener {
+		private final ChannelHandlerContext ctx;
+		private final FullHttpRequest request;
+		private final int seq;
+		private final RouteOptions options;
+		private final CompletionStage<?> stage;
+		private final Future<?> future;
+		private final ScheduledFuture<?> timer;
+		private boolean done;
+
+		AsyncResponse(final ChannelHandlerContext ctx, final FullHttpRequest request, final int seq,
+				final Route route, final CompletionStage<?> stage, final Future<?> future) {
+			this.ctx = ctx;
+			this.request = request;
+			this.seq = seq;
+			this.options = route.getOptions();
+			this.stage = stage;
+			this.future = future;
+
+			request.retain();
+			final long timeoutMillis = options.getTimeoutMillis();
+			this.timer = timeoutMillis > 0
+					? ctx.executor().schedule(this::timeout, timeoutMillis, TimeUnit.MILLISECONDS)
+					: null;
+			ctx.channel().closeFuture().addListener(this);
+		}
+
+		void completeOnEventLoop(final Object value, final Throwable cause) {
+			if (ctx.executor().inEventLoop()) {
+				complete(value, cause);
+			} else {
+				try {
+					ctx.executor().execute(() -> complete(value, cause));
+				} catch (final RejectedExecutionException e) {
+					// event loop shut down, the close listener releases the request
+				}
+			}
+		}
+
+		private void complete(final Object value, final Throwable cause) {
+			if (!finish())
+				return;
+
+			try {
+				if (cause != null) {
+					logger.warn("", cause);
+					ResponseSequencer.of(ctx.channel()).complete(seq, () -> sendInternalServerError(ctx, request));
+				} else {
+					ResponseSequencer.of(ctx.channel()).complete(seq,
+							() -> writeResultOrError(ctx, request, value, options));
+				}
+			} finally {
+				request.release();
+			}
+		}
+
+		private void timeout() {
+			if (!finish())
+				return;
+
+			cancel();
+			try {
+				ResponseSequencer.of(ctx.channel()).complete(seq, () -> sendGatewayTimeout(ctx, request));
+			} finally {
+				request.release();
+			}
+		}
+
+		@Override
+		public void operationComplete(final ChannelFuture closeFuture) {
+			// the client went away
+			if (!finish())
+				return;
+
+			cancel();
+			request.release();
+		}
+
+		private boolean finish() {
+			if (done)
+				return false;
+
+			done = true;
+			if (timer != null)
+				timer.cancel(false);
+			ctx.channel().closeFuture().removeListener(this);
+			return true;
+		}
+
+		private void cancel() {
+			if (future != null) {
+				future.cancel(true);
+				return;
+			}
+			try {
+				stage.toCompletableFuture().cancel(true);
+			} catch (final UnsupportedOperationException e) {
+				// a stage that cannot be cancelled simply completes unobserved
+			}
+		}
+	}
+
+	/**
+	 * Writes the value returned by a {@link Handler}: a {@link File}, a
+	 * {@link Response}, or a body as described there. Any other object is
+	 * written as its {@code toString()}.
+	 */
+	static void writeResult(final ChannelHandlerContext ctx, final HttpRequest request, final Object obj,
+			final RouteOptions options) throws Exception {
+		final boolean etag = options.isETag();
+		if (obj instanceof File) {
+			File file = (File) obj;
+			writeFile(ctx, request, file);
+		} else if (obj instanceof Response) {
+			final Response response = (Response) obj;
+			final Object body = response.getBody();
+			final CharSequence contentType = response.getContentType() != null
+					? response.getContentType() : contentTypeOf(body);
+			writeResponse(ctx, request, response.getStatus(), encode(ctx, body), contentType,
+					response.getHeaders(), etag);
+		} else {
+			writeResponse(ctx, request, HttpResponseStatus.OK, encode(ctx, obj), contentTypeOf(obj), null, etag);
+		}
+	}
+
+	private static CharSequence contentTypeOf(final Object body) {
+		return body instanceof ByteBuf || body instanceof byte[] ? TYPE_OCTET_STREAM_VALUE : TYPE_PLAIN_VALUE;
+	}
+
+	/**
+	 * @return the pre-encoded value for one of the TYPE_ constants
+	 */
+	private static CharSequence headerValue(final CharSequence contentType) {
+		if (contentType == TYPE_PLAIN)
+			return TYPE_PLAIN_VALUE;
+		if (contentType == TYPE_JSON)
+			return TYPE_JSON_VALUE;
+		if (contentType == TYPE_OCTET_STREAM)
+			return TYPE_OCTET_STREAM_VALUE;
+		return contentType;
+	}
+
+	/**
+	 * Turns a response body into a buffer without an intermediate copy.
+	 */
+	private static ByteBuf encode(final ChannelHandlerContext ctx, final Object body) {
+		if (body == null)
+			return Unpooled.EMPTY_BUFFER;
+		if (body instanceof ByteBuf)
+			return (ByteBuf) body;
+		if (body instanceof byte[])
+			return Unpooled.wrappedBuffer((byte[]) body);
+		if (body instanceof AsciiString) {
+			final AsciiString ascii = (AsciiString) body;
+			return Unpooled.wrappedBuffer(ascii.array(), ascii.arrayOffset(), ascii.length());
+		}
+		return encodeUtf8(ctx, body instanceof CharSequence ? (CharSequence) body : body.toString());
+	}
+
+	/**
+	 * Encodes straight into a pooled I/O buffer of the channel's allocator.
+	 */
+	private static ByteBuf encodeUtf8(final ChannelHandlerContext ctx, final CharSequence content) {
+		if (content.length() == 0)
+			return Unpooled.EMPTY_BUFFER;
+
+		// sized for the UTF-8 worst case so that writeUtf8 never has to grow it
+		final ByteBuf buf = ctx.alloc().ioBuffer(content.length() * MAX_BYTES_PER_CHAR_UTF8);
+		ByteBufUtil.writeUtf8(buf, content);
+		return buf;
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
 		logger.warn("exceptionCaught", cause);
+		ConnectionMetrics.closing(ctx.channel(), ConnectionMetrics.CloseReason.ERROR);
 		ctx.close();
 	}
 
@@ -97,7 +456,7 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 	 * @param request
 	 *            The HTTP request.
 	 */
-	public static void sendNotFound(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+	public static void sendNotFound(final ChannelHandlerContext ctx, final HttpRequest request) {
 		writeErrorResponse(ctx, request, HttpResponseStatus.NOT_FOUND);
 	}
 
@@ -109,46 +468,77 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 	 * @param request
 	 *            The HTTP request.
 	 */
-	public static void sendInternalServerError(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+	public static void sendInternalServerError(final ChannelHandlerContext ctx, final HttpRequest request) {
 		writeErrorResponse(ctx, request, HttpResponseStatus.INTERNAL_SERVER_ERROR);
 	}
 
 	/**
-	 * Writes a HTTP error response.
+	 * Writes a 503 Service Unavailable response.
 	 *
 	 * @param ctx
 	 *            The channel context.
 	 * @param request
 	 *            The HTTP request.
-	 * @param status
-	 *            The error status.
 	 */
-	private static void writeErrorResponse(final ChannelHandlerContext ctx, final FullHttpRequest request,
-			final HttpResponseStatus status) {
+	public static void sendServiceUnavailable(final ChannelHandlerContext ctx, final HttpRequest request) {
+		writeErrorResponse(ctx, request, HttpResponseStatus.SERVICE_UNAVAILABLE);
+	}
+
+	/**
+	 * Writes a 504 Gateway Timeout response.
+	 *
+	 * @param ctx
+	 *            The channel context.
+	 * @param request
+	 *            The HTTP request.
+	 */
+	public static void sendGatewayTimeout(final ChannelHandlerContext ctx, final HttpRequest request) {
+		writeErrorResponse(ctx, request, HttpResponseStatus.GATEWAY_TIMEOUT);
+	}
 
-		writeResponse(ctx, request, status, TYPE_PLAIN, status.reasonPhrase().toString());
+	/**
+	 * Writes a 413 Payload Too Large response.
+	 *
+	 * @param ctx
+	 *            The channel context.
+	 * @param request
+	 *            The HTTP request.
+	 */
+	public static void sendPayloadTooLarge(final ChannelHandlerContext ctx, final HttpRequest request) {
+		writeErrorResponse(ctx, request, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
 	}
 
 	/**
-	 * Writes a HTTP response.
+	 * Writes a 426 Upgrade Required response, for a plain request to a
+	 * WebSocket route.
+	 *
+	 * @param ctx
+	 *            The channel context.
+	 * @param request
+	 *            The HTTP request.
+	 */
+	public static void sendUpgradeRequired(final ChannelHandlerContext ctx, final HttpRequest request) {
+		final HttpResponseStatus status = HttpResponseStatus.UPGRADE_REQUIRED;
+		final HttpHeaders headers = new DefaultHttpHeaders(false)
+				.set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET);
+		writeResponse(ctx, request, status, encodeUtf8(ctx, status.reasonPhrase()), TYPE_PLAIN_VALUE, headers,
+				false);
+	}
+
+	/**
+	 * Writes a HTTP error response.
 	 *
 	 * @param ctx
 	 *            The channel context.
 	 * @param request
 	 *            The HTTP request.
 	 * @param status
-	 *            The HTTP status code.
-	 * @param contentType
-	 *            The response content type.
-	 * @param content
-	 *            The response content.
+	 *            The error status.
 	 */
-	private static void writeResponse(final ChannelHandlerContext ctx, final FullHttpRequest request,
-			final HttpResponseStatus status, final CharSequence contentType, final String content) {
+	private static void writeErrorResponse(final ChannelHandlerContext ctx, final HttpRequest request,
+			final HttpResponseStatus status) {
 
-		final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
-		final ByteBuf entity = Unpooled.wrappedBuffer(bytes);
-		writeResponse(ctx, request, status, entity, contentType, bytes.length);
+		writeResponse(ctx, request, status, encodeUtf8(ctx, status.reasonPhrase()), TYPE_PLAIN_VALUE, null, false);
 	}
 
 	/**
@@ -161,15 +551,28 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 	 * @param status
 	 *            The HTTP status code.
 	 * @param buf
-	 *            The response content buffer.
+	 *            The response content buffer, released once written.
 	 * @param contentType
 	 *            The response content type.
-	 * @param contentLength
-	 *            The response content length;
+	 * @param extraHeaders
+	 *            Further response headers, or null.
+	 * @param etag
+	 *            Whether to tag a 200 response with a hash of its content and
+	 *            answer a matching If-None-Match with 304 Not Modified.
 	 */
-	private static void writeResponse(final ChannelHandlerContext ctx, final FullHttpRequest request,
-			final HttpResponseStatus status, final ByteBuf buf, final CharSequence contentType,
-			final int contentLength) {
+	private static void writeResponse(final ChannelHandlerContext ctx, final HttpRequest request,
+			HttpResponseStatus status, ByteBuf buf, final CharSequence contentType,
+			final HttpHeaders extraHeaders, final boolean etag) {
+		AsciiString tag = null;
+		if (etag && status.code() == HttpResponseStatus.OK.code()) {
+			tag = ETags.of(buf);
+			if (ETags.matches(request.headers().get(HttpHeaderNames.IF_NONE_MATCH), tag)) {
+				buf.release();
+				buf = Unpooled.EMPTY_BUFFER;
+				status = HttpResponseStatus.NOT_MODIFIED;
+			}
+		}
+
 		// Build the response object.
 		final FullHttpResponse response = new DefaultFullHttpResponse(
 				request.protocolVersion(), status, buf, false);
@@ -180,14 +583,22 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
 		}
 		
-		final ZonedDateTime dateTime = ZonedDateTime.now();
-		final DateTimeFormatter formatter = DateTimeFormatter.RFC_1123_DATE_TIME;
-
 		final DefaultHttpHeaders headers = (DefaultHttpHeaders) response.headers();
-		headers.set(HttpHeaderNames.SERVER, SERVER_NAME);
-		headers.set(HttpHeaderNames.DATE, dateTime.format(formatter));
-		headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
-		headers.set(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(contentLength));
+		if (extraHeaders != null) {
+			headers.add(extraHeaders);
+		}
+		// a Server header of the handler's own wins
+		if (!headers.contains(HttpHeaderNames.SERVER)) {
+			headers.set(HttpHeaderNames.SERVER, SERVER_NAME_VALUE);
+		}
+		headers.set(HttpHeaderNames.DATE, HttpDate.now());
+		if (tag != null) {
+			headers.set(HttpHeaderNames.ETAG, tag);
+		}
+		if (status.code() != HttpResponseStatus.NOT_MODIFIED.code()) {
+			headers.set(HttpHeaderNames.CONTENT_TYPE, headerValue(contentType));
+			headers.setInt(HttpHeaderNames.CONTENT_LENGTH, buf.readableBytes());
+		}
 
 		ChannelFuture future = ctx.writeAndFlush(response);
 		
@@ -198,7 +609,7 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
 		}
 	}
 
-	private static void writeFile(final ChannelHandlerContext ctx, final FullHttpRequest request,
+	private static void writeFile(final ChannelHandlerContext ctx, final HttpRequest request,
 			final File file) throws Exception {
 		HttpStaticFileHelper.servFile(ctx, request, file);
 	}
@@ -3,76 +3,171 @@ package org.example.netty.webserver;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.example.netty.webserver.HttpServerConfig.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.Future;
+import io.netty.util.internal.PlatformDependent;
 
 public class HttpServer implements Closeable {
 	private static final Logger logger = LoggerFactory.getLogger(HttpServer.class);
 
-	private Channel channel;
+	private final List<Channel> channels = new ArrayList<Channel>();
 	
-	private final EventLoopGroup group;
+	private final EventLoopGroup bossGroup;
+
+	private final EventLoopGroup workerGroup;
+
+	private final Transport transport;
+
+	private final ByteBufAllocator allocator;
     
 	private final RouteTable routeTable;
+
+	private final HttpServerConfig config;
+
+	private final ServerMetrics metrics = new ServerMetrics();
 	
 	public HttpServer() {
-		if (Epoll.isAvailable()) {
-			group = new EpollEventLoopGroup();
-		} else {
-			group = new NioEventLoopGroup();					
+		this(new HttpServerConfig());
+	}
+
+	public HttpServer(HttpServerConfig config) {
+		this.config = config;
+
+		transport = Transports.resolve(config.getTransport());
+		bossGroup = Transports.newGroup(transport, config.getBossThreads(), "http-boss");
+		workerGroup = Transports.newGroup(transport, config.getWorkerThreads(), "http-worker");
+		logger.debug("Using the {} transport", transport);
+		allocator = createAllocator(config);
+		metrics.setAllocator(allocator);
+		if (config.getEventLoopProbeInterval() > 0) {
+			metrics.setEventLoops(new EventLoopMonitor(workerGroup, config.getEventLoopProbeInterval(),
+					config.getBlockingThreshold()));
 		}
 		
-		channel = null;
 		routeTable = new RouteTable();				
 	}
 		
+	/**
+	 * Binds the configured number of listeners to the address.
+	 *
+	 * @return the bind future of the first listener
+	 */
 	public ChannelFuture start(InetSocketAddress address) {
 		ServerBootstrap bootstrap = new ServerBootstrap();
-		bootstrap.option(ChannelOption.SO_BACKLOG, 1024);
-		bootstrap.option(ChannelOption.SO_REUSEADDR, true);
+		bootstrap.option(ChannelOption.SO_BACKLOG, config.getBacklog());
+		bootstrap.option(ChannelOption.SO_REUSEADDR, config.isReuseAddress());
+		bootstrap.childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay());
+		bootstrap.option(ChannelOption.ALLOCATOR, allocator);
+		bootstrap.childOption(ChannelOption.ALLOCATOR, allocator);
+		bootstrap.childOption(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(
+				config.getReceiveBufferMin(), config.getReceiveBufferInitial(), config.getReceiveBufferMax()));
+
+		int listeners = Math.max(1, config.getListeners());
+		if (transport == Transport.EPOLL) {
+			bootstrap.option(EpollChannelOption.EPOLL_MODE, config.getEpollMode());
+			bootstrap.childOption(EpollChannelOption.EPOLL_MODE, config.getEpollMode());
+			if (config.getTcpFastOpen() > 0)
+				bootstrap.option(EpollChannelOption.TCP_FASTOPEN, config.getTcpFastOpen());
+			if (config.getTcpDeferAccept() > 0)
+				bootstrap.option(EpollChannelOption.TCP_DEFER_ACCEPT, config.getTcpDeferAccept());
+		}
+		ChannelOption<Boolean> reusePort = Transports.reusePortOption(transport);
+		if (listeners > 1 && reusePort != null) {
+			bootstrap.option(reusePort, true);
+		} else if (listeners > 1) {
+			logger.warn("{} listeners need SO_REUSEPORT, binding only one with {}", listeners, transport);
+			listeners = 1;
+		}
 		
-		bootstrap.group(group)
-			.channel(Epoll.isAvailable()?EpollServerSocketChannel.class:NioServerSocketChannel.class)
+		bootstrap.group(bossGroup, workerGroup)
+			.channel(Transports.serverChannelClass(transport))
 			//.handler(new LoggingHandler(LogLevel.INFO))
 			.childHandler(createChannelInitializer(routeTable));
 		
-		ChannelFuture future = bootstrap.bind(address);
-		future.syncUninterruptibly();
-		channel = future.channel();
-		return future;
+		if (metrics.getEventLoops() != null)
+			metrics.getEventLoops().start();
+
+		ChannelFuture first = null;
+		for (int i = 0; i < listeners; i++) {
+			ChannelFuture future = bootstrap.bind(address);
+			future.syncUninterruptibly();
+			channels.add(future.channel());
+			if (first == null)
+				first = future;
+		}
+		return first;
 	}
 	
+	/**
+	 * @return the configured allocator, the shared default pooled allocator
+	 *         when its settings are left alone, or a pooled allocator of
+	 *         this server's own
+	 */
+	private static ByteBufAllocator createAllocator(HttpServerConfig config) {
+		if (config.getAllocator() != null)
+			return config.getAllocator();
+		if (config.getAllocatorArenas() < 0 && config.getAllocatorChunkSize() == 0
+				&& config.isAllocatorCacheForAllThreads() == PooledByteBufAllocator.defaultUseCacheForAllThreads())
+			return PooledByteBufAllocator.DEFAULT;
+
+		final int pageSize = PooledByteBufAllocator.defaultPageSize();
+		int maxOrder = PooledByteBufAllocator.defaultMaxOrder();
+		final int chunkSize = config.getAllocatorChunkSize();
+		if (chunkSize > 0) {
+			if (chunkSize % pageSize != 0 || Integer.bitCount(chunkSize / pageSize) != 1)
+				throw new IllegalArgumentException(
+						"Chunk size " + chunkSize + " is not a power of two times the page size " + pageSize);
+			maxOrder = Integer.numberOfTrailingZeros(chunkSize / pageSize);
+		}
+		final int arenas = config.getAllocatorArenas();
+		return new PooledByteBufAllocator(PlatformDependent.directBufferPreferred(),
+				arenas < 0 ? PooledByteBufAllocator.defaultNumHeapArena() : arenas,
+				arenas < 0 ? PooledByteBufAllocator.defaultNumDirectArena() : arenas,
+				pageSize, maxOrder, PooledByteBufAllocator.defaultTinyCacheSize(),
+				PooledByteBufAllocator.defaultSmallCacheSize(), PooledByteBufAllocator.defaultNormalCacheSize(),
+				config.isAllocatorCacheForAllThreads());
+	}
+
 	protected ChannelInitializer<Channel> createChannelInitializer(RouteTable r) {
-		return new HttpServerInitializer(r);
+		return new HttpServerInitializer(r, config, metrics);
+	}
+
+	public HttpServerConfig getConfig() {
+		return config;
+	}
+
+	public ServerMetrics getMetrics() {
+		return metrics;
 	}
 		
     /**
      * Adds a GET route.
      *
-     * @param path The URL path.
+     * @param path The URL path template, e.g. {@code /users/{id:int}}, or a regular expression.
      * @param handler The request handler.
      * @return This WebServer.
      */
     public HttpServer get(final String path, final Handler handler) {
-        this.routeTable.addRoute(new Route(HttpMethod.GET, Pattern.compile(path), handler));
+        this.routeTable.addRoute(new Route(HttpMethod.GET, path, handler));
         return this;
     }
 
@@ -80,21 +175,151 @@ public class HttpServer implements Closeable {
     /**
      * Adds a POST route.
      *
-     * @param path The URL path.
+     * @param path The URL path template, e.g. {@code /users/{id:int}}, or a regular expression.
      * @param handler The request handler.
      * @return This WebServer.
      */
     public HttpServer post(final String path, final Handler handler) {
-        this.routeTable.addRoute(new Route(HttpMethod.POST, Pattern.compile(path), handler));
+        this.routeTable.addRoute(new Route(HttpMethod.POST, path, handler));
+        return this;
+    }
+
+    /**
+     * Adds a GET route with per-route options, e.g. to run a blocking handler
+     * on a {@link HandlerExecutor}.
+     *
+     * @param path The URL path template or a regular expression.
+     * @param handler The request handler.
+     * @param options The route options.
+     * @return This WebServer.
+     */
+    public HttpServer get(final String path, final Handler handler, final RouteOptions options) {
+        return route(HttpMethod.GET, path, handler, options);
+    }
+
+    /**
+     * Adds a POST route with per-route options.
+     *
+     * @param path The URL path template or a regular expression.
+     * @param handler The request handler.
+     * @param options The route options.
+     * @return This WebServer.
+     */
+    public HttpServer post(final String path, final Handler handler, final RouteOptions options) {
+        return route(HttpMethod.POST, path, handler, options);
+    }
+
+    /**
+     * Adds a route for any HTTP method.
+     *
+     * @param method The HTTP method.
+     * @param path The URL path template or a regular expression.
+     * @param handler The request handler.
+     * @param options The route options.
+     * @return This WebServer.
+     */
+    public HttpServer route(final HttpMethod method, final String path, final Handler handler,
+            final RouteOptions options) {
+        this.routeTable.addRoute(new Route(method, path, handler, options));
+        return this;
+    }
+
+    /**
+     * Adds a route whose request body is streamed instead of aggregated, so it
+     * is not subject to the aggregation size limit.
+     *
+     * @param method The HTTP method.
+     * @param path The URL path template or a regular expression.
+     * @param handler The streaming request handler.
+     * @return This WebServer.
+     */
+    public HttpServer stream(final HttpMethod method, final String path, final StreamingHandler handler) {
+        return stream(method, path, handler, RouteOptions.DEFAULT);
+    }
+
+    /**
+     * Adds a streaming route with per-route options. With a
+     * {@link HandlerExecutor} the body chunks are consumed off the event loop
+     * and reading from the socket pauses while a chunk is in progress.
+     *
+     * @param method The HTTP method.
+     * @param path The URL path template or a regular expression.
+     * @param handler The streaming request handler.
+     * @param options The route options.
+     * @return This WebServer.
+     */
+    public HttpServer stream(final HttpMethod method, final String path, final StreamingHandler handler,
+            final RouteOptions options) {
+        this.routeTable.addRoute(new Route(method, path, handler, options));
+        return this;
+    }
+
+    /**
+     * Adds a WebSocket endpoint. Upgrade requests for the path, query string
+     * or not, get the WebSocket handlers installed on their connection; a
+     * request without an upgrade is answered with 426 Upgrade Required. A GET
+     * route for the same path is replaced.
+     *
+     * @param path The URL path template, e.g. {@code /feed/{topic}}, or a regular expression.
+     * @param handler The handler of the connections.
+     * @return This WebServer.
+     */
+    public HttpServer ws(final String path, final WebSocketHandler handler) {
+        this.routeTable.addRoute(new Route(path, handler));
         return this;
     }
 
+    /**
+     * Adds a GET route that answers with the server's metrics in the
+     * Prometheus text format: requests, body bytes and latency per route,
+     * connection counts, the lag and blocking of the event loops, and buffer
+     * allocator usage.
+     *
+     * @param path The URL path, e.g. {@code /admin/metrics}.
+     * @return This WebServer.
+     */
+    public HttpServer metrics(final String path) {
+        return get(path, request -> Response.ok(PrometheusMetrics.format(metrics))
+                .contentType(PrometheusMetrics.CONTENT_TYPE));
+    }
+
+    /**
+     * Removes a route at runtime. Requests already being handled keep the
+     * route they were matched with.
+     *
+     * @param method The HTTP method.
+     * @param path The URL path exactly as it was registered.
+     * @return true if a route was removed.
+     */
+    public boolean remove(final HttpMethod method, final String path) {
+        return this.routeTable.removeRoute(method, path) != null;
+    }
+
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the event loops serving connections
+	 */
+	public EventLoopGroup getWorkerGroup() {
+		return workerGroup;
+	}
+
 	@Override
 	public void close() {
-		if (channel != null)
+		for (Channel channel : channels)
 			channel.close();
+		if (metrics.getEventLoops() != null)
+			metrics.getEventLoops().close();
 		
-		Future<?> future = group.shutdownGracefully();
-		future.syncUninterruptibly();
+		Future<?> boss = bossGroup.shutdownGracefully();
+		Future<?> worker = workerGroup.shutdownGracefully();
+		boss.syncUninterruptibly();
+		worker.syncUninterruptibly();
 	}	
 }
@@ -0,0 +1,88 @@
+package org.example.netty.webserver;
+
+import org.example.netty.webserver.util.AcceptEncoding;
+import org.example.netty.webserver.util.ETags;
+import org.example.netty.webserver.util.MimeTypes;
+
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * An {@link HttpContentCompressor} that decides per response whether
+ * compressing is worth it. Responses that are already encoded, partial, of a
+ * type that is compressed already (images, video, archives), or whose known
+ * length is below {@code minSize} or above {@code maxSize} pass through
+ * untouched, which lets such files keep going out zero-copy. A compressed
+ * response's strong ETag gets the coding appended, e.g. {@code "abc-gzip"},
+ * which {@link ETags#matches} accepts for the identity tag.
+ *
+ * @author gang
+ *
+ */
+public class HttpServerCompressor extends HttpContentCompressor {
+	private final int minSize;
+	private final long maxSize;
+
+	public HttpServerCompressor(int compressionLevel, int minSize, long maxSize) {
+		super(compressionLevel);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return whether a response with these headers is compressed for a
+	 *         client that accepts gzip or deflate
+	 */
+	public boolean isCompressible(HttpResponse response) {
+		if (response.status().code() == HttpResponseStatus.PARTIAL_CONTENT.code())
+			return false;
+
+		final HttpHeaders headers = response.headers();
+		if (headers.contains(HttpHeaderNames.CONTENT_ENCODING) || headers.contains(HttpHeaderNames.CONTENT_RANGE))
+			return false;
+		if (!MimeTypes.isCompressible(headers.get(HttpHeaderNames.CONTENT_TYPE)))
+			return false;
+
+		final String length = headers.get(HttpHeaderNames.CONTENT_LENGTH);
+		if (length != null) {
+			try {
+				final long contentLength = Long.parseLong(length);
+				return contentLength >= minSize && contentLength <= maxSize;
+			} catch (NumberFormatException ex) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param acceptEncoding the request's Accept-Encoding header, may be null
+	 * @return whether this response will be compressed for that client; when
+	 *         false the body is written as is and may be a
+	 *         {@link io.netty.channel.FileRegion}
+	 */
+	public boolean isCompressible(HttpResponse response, CharSequence acceptEncoding) {
+		if (!AcceptEncoding.accepts(acceptEncoding, HttpHeaderValues.GZIP)
+				&& !AcceptEncoding.accepts(acceptEncoding, HttpHeaderValues.DEFLATE))
+			return false;
+		return isCompressible(response);
+	}
+
+	@Override
+	protected Result beginEncode(HttpResponse headers, String acceptEncoding) throws Exception {
+		if (!isCompressible(headers))
+			return null;
+		final Result result = super.beginEncode(headers, acceptEncoding);
+		if (result != null) {
+			// the encoded body is another representation and needs its own validator
+			final String etag = headers.headers().get(HttpHeaderNames.ETAG);
+			if (etag != null)
+				headers.headers().set(HttpHeaderNames.ETAG, ETags.variant(etag, result.targetContentEncoding()));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,543 @@
+package org.example.netty.webserver;
+
+import org.example.netty.webserver.util.StaticFileCache;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.epoll.EpollMode;
+
+/**
+ * Tunables of an {@link HttpServer}. Set them before the server is constructed
+ * with it. Most defaults keep the previous hard-coded behaviour; these do not:
+ * <ul>
+ * <li>a connection idle for {@value #DEFAULT_IDLE_TIMEOUT} ms is closed, see
+ * {@link #setIdleTimeouts}, and WebSocket peers are pinged every
+ * {@value #DEFAULT_WEBSOCKET_PING_INTERVAL} ms</li>
+ * <li>only bodies of {@value #DEFAULT_COMPRESSION_MIN_SIZE} bytes up to
+ * {@value #DEFAULT_COMPRESSION_MAX_SIZE} bytes are compressed</li>
+ * <li>reading pauses while {@value #DEFAULT_MAX_PIPELINED_REQUESTS}
+ * pipelined requests wait for their response</li>
+ * <li>a WebSocket that cannot keep up has frames dropped, see
+ * {@link SlowConsumerPolicy}</li>
+ * </ul>
+ *
+ * @author gang
+ *
+ */
+public class HttpServerConfig {
+	/** The I/O transport of the event loops and channels. */
+	public enum Transport {
+		/** epoll where the native library loads, NIO otherwise */
+		AUTO,
+		/** native epoll, Linux only */
+		EPOLL,
+		/**
+		 * native io_uring, Linux 5.9+ with the incubator transport on the
+		 * class path; falls back to epoll, then NIO
+		 */
+		IO_URING,
+		/** java.nio, everywhere */
+		NIO
+	}
+
+	/** What a WebSocket connection gets while it cannot take more frames. */
+	public enum SlowConsumerPolicy {
+		/** frames published meanwhile are dropped */
+		DROP,
+		/** only the latest frame per topic is kept and sent once it catches up */
+		COALESCE,
+		/** frames are dropped, and the connection is closed after a grace period */
+		DISCONNECT
+	}
+
+	public static final int DEFAULT_BACKLOG = 1024;
+	public static final int DEFAULT_MAX_CONTENT_LENGTH = 64 * 1024;
+	public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 16;
+	public static final int DEFAULT_FLUSH_CONSOLIDATION = 256;
+	public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+	public static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+	public static final long DEFAULT_COMPRESSION_MAX_SIZE = 1024 * 1024;
+	public static final long DEFAULT_EVENT_LOOP_PROBE_INTERVAL = 100;
+	public static final long DEFAULT_BLOCKING_THRESHOLD = 500;
+	public static final int DEFAULT_WEBSOCKET_WRITE_BUFFER_LOW = 32 * 1024;
+	public static final int DEFAULT_WEBSOCKET_WRITE_BUFFER_HIGH = 64 * 1024;
+	public static final long DEFAULT_SLOW_CONSUMER_GRACE_PERIOD = 10000;
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final long DEFAULT_WEBSOCKET_PING_INTERVAL = 30000;
+	public static final int DEFAULT_RECEIVE_BUFFER_MIN = 64;
+	public static final int DEFAULT_RECEIVE_BUFFER_INITIAL = 1024;
+	public static final int DEFAULT_RECEIVE_BUFFER_MAX = 64 * 1024;
+
+	private int maxContentLength = DEFAULT_MAX_CONTENT_LENGTH;
+	private int maxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+	private long readIdleTimeout;
+	private long writeIdleTimeout;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private int flushConsolidation = DEFAULT_FLUSH_CONSOLIDATION;
+	private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+	private int compressionMinSize = DEFAULT_COMPRESSION_MIN_SIZE;
+	private long compressionMaxSize = DEFAULT_COMPRESSION_MAX_SIZE;
+	private StaticFileCache staticFileCache;
+	private boolean routeMetrics = true;
+	private boolean webSocketCompression = true;
+	private int webSocketWriteBufferLow = DEFAULT_WEBSOCKET_WRITE_BUFFER_LOW;
+	private int webSocketWriteBufferHigh = DEFAULT_WEBSOCKET_WRITE_BUFFER_HIGH;
+	private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP;
+	private long slowConsumerGracePeriod = DEFAULT_SLOW_CONSUMER_GRACE_PERIOD;
+	private long webSocketPingInterval = DEFAULT_WEBSOCKET_PING_INTERVAL;
+	private long eventLoopProbeInterval = DEFAULT_EVENT_LOOP_PROBE_INTERVAL;
+	private long blockingThreshold = DEFAULT_BLOCKING_THRESHOLD;
+
+	private ByteBufAllocator allocator;
+	private int allocatorArenas = -1;
+	private int allocatorChunkSize;
+	private boolean allocatorCacheForAllThreads = true;
+	private int receiveBufferMin = DEFAULT_RECEIVE_BUFFER_MIN;
+	private int receiveBufferInitial = DEFAULT_RECEIVE_BUFFER_INITIAL;
+	private int receiveBufferMax = DEFAULT_RECEIVE_BUFFER_MAX;
+
+	private Transport transport = Transport.AUTO;
+	private int bossThreads = 1;
+	private int workerThreads;
+	private int listeners = 1;
+	private int backlog = DEFAULT_BACKLOG;
+	private boolean reuseAddress = true;
+	private boolean tcpNoDelay = true;
+	private int tcpFastOpen;
+	private int tcpDeferAccept;
+	private EpollMode epollMode = EpollMode.EDGE_TRIGGERED;
+
+	public int getMaxContentLength() {
+		return maxContentLength;
+	}
+
+	/**
+	 * @param maxContentLength the largest aggregated request body; streaming
+	 *            routes have no limit
+	 */
+	public HttpServerConfig setMaxContentLength(int maxContentLength) {
+		this.maxContentLength = maxContentLength;
+		return this;
+	}
+
+	public int getMaxPipelinedRequests() {
+		return maxPipelinedRequests;
+	}
+
+	/**
+	 * @param maxPipelinedRequests requests per connection that may wait for
+	 *            their response before the server stops reading
+	 */
+	public HttpServerConfig setMaxPipelinedRequests(int maxPipelinedRequests) {
+		this.maxPipelinedRequests = maxPipelinedRequests;
+		return this;
+	}
+
+	public long getReadIdleTimeout() {
+		return readIdleTimeout;
+	}
+
+	public long getWriteIdleTimeout() {
+		return writeIdleTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Milliseconds after which an HTTP connection that is not waiting for a
+	 * response is closed, 0 for no limit. A write only counts once it makes
+	 * progress, so a client that stops reading a large response is reaped as
+	 * well.
+	 *
+	 * @param read without receiving anything
+	 * @param write without sending anything
+	 * @param all without receiving or sending anything
+	 */
+	public HttpServerConfig setIdleTimeouts(long read, long write, long all) {
+		this.readIdleTimeout = read;
+		this.writeIdleTimeout = write;
+		this.idleTimeout = all;
+		return this;
+	}
+
+	public int getFlushConsolidation() {
+		return flushConsolidation;
+	}
+
+	/**
+	 * @param flushConsolidation flushes coalesced into one while a read is in
+	 *            progress, 0 to flush every response on its own
+	 */
+	public HttpServerConfig setFlushConsolidation(int flushConsolidation) {
+		this.flushConsolidation = flushConsolidation;
+		return this;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * @param compressionLevel gzip/deflate level 1-9, 0 to never compress
+	 */
+	public HttpServerConfig setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+		return this;
+	}
+
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+
+	/**
+	 * @param compressionMinSize smaller bodies are sent uncompressed
+	 */
+	public HttpServerConfig setCompressionMinSize(int compressionMinSize) {
+		this.compressionMinSize = compressionMinSize;
+		return this;
+	}
+
+	public long getCompressionMaxSize() {
+		return compressionMaxSize;
+	}
+
+	/**
+	 * @param compressionMaxSize larger bodies are sent uncompressed, static
+	 *            files then go out zero-copy
+	 */
+	public HttpServerConfig setCompressionMaxSize(long compressionMaxSize) {
+		this.compressionMaxSize = compressionMaxSize;
+		return this;
+	}
+
+	public StaticFileCache getStaticFileCache() {
+		return staticFileCache;
+	}
+
+	/**
+	 * @param staticFileCache serves {@link java.io.File} results from memory,
+	 *            null to read them from disk on every request; the caller
+	 *            closes it
+	 */
+	public HttpServerConfig setStaticFileCache(StaticFileCache staticFileCache) {
+		this.staticFileCache = staticFileCache;
+		return this;
+	}
+
+	public boolean isRouteMetrics() {
+		return routeMetrics;
+	}
+
+	/**
+	 * @param routeMetrics counts requests, bytes and latency per route into
+	 *            {@link HttpServer#getMetrics()}
+	 */
+	public HttpServerConfig setRouteMetrics(boolean routeMetrics) {
+		this.routeMetrics = routeMetrics;
+		return this;
+	}
+
+	public boolean isWebSocketCompression() {
+		return webSocketCompression;
+	}
+
+	/**
+	 * @param webSocketCompression offers permessage-deflate to WebSocket
+	 *            clients; it compresses every frame per connection, so a
+	 *            {@link WebSocketHub} broadcast is no longer encoded only once
+	 */
+	public HttpServerConfig setWebSocketCompression(boolean webSocketCompression) {
+		this.webSocketCompression = webSocketCompression;
+		return this;
+	}
+
+	public int getWebSocketWriteBufferLow() {
+		return webSocketWriteBufferLow;
+	}
+
+	public int getWebSocketWriteBufferHigh() {
+		return webSocketWriteBufferHigh;
+	}
+
+	/**
+	 * Outbound bytes a connection of a {@link WebServer} may buffer: above
+	 * {@code high} it becomes unwritable and the slow consumer policy applies
+	 * to broadcast frames, below {@code low} it is writable again.
+	 */
+	public HttpServerConfig setWebSocketWriteBufferWaterMark(int low, int high) {
+		this.webSocketWriteBufferLow = low;
+		this.webSocketWriteBufferHigh = high;
+		return this;
+	}
+
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}
+
+	/**
+	 * @param slowConsumerPolicy what WebSocket connections get while they are
+	 *            unwritable; {@link WebSocketHub#setSlowConsumerPolicy}
+	 *            changes it per connection
+	 */
+	public HttpServerConfig setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+		this.slowConsumerPolicy = slowConsumerPolicy;
+		return this;
+	}
+
+	public long getSlowConsumerGracePeriod() {
+		return slowConsumerGracePeriod;
+	}
+
+	/**
+	 * @param slowConsumerGracePeriod milliseconds a WebSocket connection may
+	 *            stay unwritable before {@link SlowConsumerPolicy#DISCONNECT}
+	 *            closes it
+	 */
+	public HttpServerConfig setSlowConsumerGracePeriod(long slowConsumerGracePeriod) {
+		this.slowConsumerGracePeriod = slowConsumerGracePeriod;
+		return this;
+	}
+
+	public long getWebSocketPingInterval() {
+		return webSocketPingInterval;
+	}
+
+	/**
+	 * @param webSocketPingInterval milliseconds a WebSocket connection may be
+	 *            silent before the server pings it; it is closed when nothing,
+	 *            not even the pong, arrives within another interval. 0 turns
+	 *            heartbeats off and leaves the connection to the idle timeouts.
+	 */
+	public HttpServerConfig setWebSocketPingInterval(long webSocketPingInterval) {
+		this.webSocketPingInterval = webSocketPingInterval;
+		return this;
+	}
+
+	public long getEventLoopProbeInterval() {
+		return eventLoopProbeInterval;
+	}
+
+	/**
+	 * @param eventLoopProbeInterval milliseconds between the probes measuring
+	 *            the lag of every worker event loop, 0 to not monitor them
+	 */
+	public HttpServerConfig setEventLoopProbeInterval(long eventLoopProbeInterval) {
+		this.eventLoopProbeInterval = eventLoopProbeInterval;
+		return this;
+	}
+
+	public long getBlockingThreshold() {
+		return blockingThreshold;
+	}
+
+	/**
+	 * @param blockingThreshold milliseconds a worker event loop may be stuck
+	 *            in one task before it is reported as blocked with a stack
+	 *            sample
+	 */
+	public HttpServerConfig setBlockingThreshold(long blockingThreshold) {
+		this.blockingThreshold = blockingThreshold;
+		return this;
+	}
+
+	public ByteBufAllocator getAllocator() {
+		return allocator;
+	}
+
+	/**
+	 * @param allocator the allocator of all channels, null to use a
+	 *            {@link io.netty.buffer.PooledByteBufAllocator} configured by
+	 *            the other allocator settings
+	 */
+	public HttpServerConfig setAllocator(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+		return this;
+	}
+
+	public int getAllocatorArenas() {
+		return allocatorArenas;
+	}
+
+	/**
+	 * @param allocatorArenas direct and heap arenas of the pooled allocator,
+	 *            -1 for Netty's default of two per core, bounded by memory;
+	 *            with fewer arenas than event loops they share and contend
+	 */
+	public HttpServerConfig setAllocatorArenas(int allocatorArenas) {
+		this.allocatorArenas = allocatorArenas;
+		return this;
+	}
+
+	public int getAllocatorChunkSize() {
+		return allocatorChunkSize;
+	}
+
+	/**
+	 * @param allocatorChunkSize bytes an arena allocates from the system at a
+	 *            time, a power of two times the page size, 0 for Netty's
+	 *            default of 16 MB; larger buffers are not pooled
+	 */
+	public HttpServerConfig setAllocatorChunkSize(int allocatorChunkSize) {
+		this.allocatorChunkSize = allocatorChunkSize;
+		return this;
+	}
+
+	public boolean isAllocatorCacheForAllThreads() {
+		return allocatorCacheForAllThreads;
+	}
+
+	/**
+	 * @param allocatorCacheForAllThreads gives threads other than the event
+	 *            loops, e.g. those of a {@link HandlerExecutor}, thread-local
+	 *            buffer caches too
+	 */
+	public HttpServerConfig setAllocatorCacheForAllThreads(boolean allocatorCacheForAllThreads) {
+		this.allocatorCacheForAllThreads = allocatorCacheForAllThreads;
+		return this;
+	}
+
+	public int getReceiveBufferMin() {
+		return receiveBufferMin;
+	}
+
+	public int getReceiveBufferInitial() {
+		return receiveBufferInitial;
+	}
+
+	public int getReceiveBufferMax() {
+		return receiveBufferMax;
+	}
+
+	/**
+	 * Bounds of the buffers reads go into. Their size adapts to how much the
+	 * previous reads returned, so small requests do not tie up large buffers.
+	 */
+	public HttpServerConfig setReceiveBufferSizes(int min, int initial, int max) {
+		this.receiveBufferMin = min;
+		this.receiveBufferInitial = initial;
+		this.receiveBufferMax = max;
+		return this;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @param transport the transport; one that is not available falls back to
+	 *            the next one (io_uring, epoll, NIO) with a warning
+	 */
+	public HttpServerConfig setTransport(Transport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	public int getBossThreads() {
+		return bossThreads;
+	}
+
+	/**
+	 * @param bossThreads threads accepting connections; with several
+	 *            listeners each gets its own thread up to this count
+	 */
+	public HttpServerConfig setBossThreads(int bossThreads) {
+		this.bossThreads = bossThreads;
+		return this;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * @param workerThreads threads serving connections, 0 for Netty's default
+	 *            of twice the number of cores
+	 */
+	public HttpServerConfig setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+		return this;
+	}
+
+	public int getListeners() {
+		return listeners;
+	}
+
+	/**
+	 * @param listeners server sockets bound to the same address with
+	 *            SO_REUSEPORT, so the kernel spreads new connections across
+	 *            them; more than one needs the epoll or io_uring
+	 *            transport
+	 */
+	public HttpServerConfig setListeners(int listeners) {
+		this.listeners = listeners;
+		return this;
+	}
+
+	public int getBacklog() {
+		return backlog;
+	}
+
+	public HttpServerConfig setBacklog(int backlog) {
+		this.backlog = backlog;
+		return this;
+	}
+
+	public boolean isReuseAddress() {
+		return reuseAddress;
+	}
+
+	public HttpServerConfig setReuseAddress(boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+		return this;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * @param tcpNoDelay disables Nagle's algorithm on accepted connections;
+	 *            responses are flushed whole, so there is nothing to gain
+	 *            from delaying them
+	 */
+	public HttpServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+
+	public int getTcpFastOpen() {
+		return tcpFastOpen;
+	}
+
+	/**
+	 * @param tcpFastOpen the TCP_FASTOPEN queue length of the listeners, 0 to
+	 *            leave it off; epoll only
+	 */
+	public HttpServerConfig setTcpFastOpen(int tcpFastOpen) {
+		this.tcpFastOpen = tcpFastOpen;
+		return this;
+	}
+
+	public int getTcpDeferAccept() {
+		return tcpDeferAccept;
+	}
+
+	/**
+	 * @param tcpDeferAccept seconds TCP_DEFER_ACCEPT waits for the first data
+	 *            before a connection is accepted, 0 to leave it off; epoll only
+	 */
+	public HttpServerConfig setTcpDeferAccept(int tcpDeferAccept) {
+		this.tcpDeferAccept = tcpDeferAccept;
+		return this;
+	}
+
+	public EpollMode getEpollMode() {
+		return epollMode;
+	}
+
+	public HttpServerConfig setEpollMode(EpollMode epollMode) {
+		this.epollMode = epollMode;
+		return this;
+	}
+}
@@ -1,37 +1,83 @@
 package org.example.netty.webserver;
 
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.util.StaticFileCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateHandler;
 
 public class HttpServerInitializer extends ChannelInitializer<Channel> {
 	private static final Logger logger = LoggerFactory.getLogger(HttpServerInitializer.class);
 	
 	protected RouteTable routeTable;
+
+	protected HttpServerConfig config;
+
+	protected ServerMetrics metrics;
 	
 	public HttpServerInitializer(RouteTable r) {
+		this(r, new HttpServerConfig());
+	}
+
+	public HttpServerInitializer(RouteTable r, HttpServerConfig config) {
+		this(r, config, new ServerMetrics());
+	}
+
+	public HttpServerInitializer(RouteTable r, HttpServerConfig config, ServerMetrics metrics) {
 		routeTable = r;
+		this.config = config;
+		this.metrics = metrics;
 	}
 	
 	@Override
 	protected void initChannel(Channel ch) throws Exception {
+		ch.attr(ResponseSequencer.KEY).set(new ResponseSequencer(ch, config.getMaxPipelinedRequests()));
+		if (config.getStaticFileCache() != null) {
+			ch.attr(StaticFileCache.KEY).set(config.getStaticFileCache());
+		}
+
 		ChannelPipeline pipeline = ch.pipeline();
+		final boolean reap = config.getReadIdleTimeout() > 0 || config.getWriteIdleTimeout() > 0
+				|| config.getIdleTimeout() > 0;
+		if (reap) {
+			// in front of everything, so it sees raw reads and write progress
+			pipeline.addLast(new IdleStateHandler(true, config.getReadIdleTimeout(), config.getWriteIdleTimeout(),
+					config.getIdleTimeout(), TimeUnit.MILLISECONDS));
+		}
+		if (config.getFlushConsolidation() > 0) {
+			// pipelined responses written during one read go out with one flush
+			pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidation(), true));
+		}
 		pipeline.addLast(new HttpServerCodec());
-		pipeline.addLast(new HttpContentCompressor());
+		pipeline.addLast(new ConnectionMetricsHandler(metrics.getConnections()));
+		if (reap) {
+			pipeline.addLast(new IdleConnectionHandler());
+		}
+		if (config.isRouteMetrics()) {
+			pipeline.addLast(new RouteMetricsHandler(metrics));
+		}
+		if (config.getCompressionLevel() > 0) {
+			pipeline.addLast(new HttpServerCompressor(config.getCompressionLevel(), config.getCompressionMinSize(),
+					config.getCompressionMaxSize()));
+		}
 		pipeline.addLast(new ChunkedWriteHandler());
-		pipeline.addLast(new HttpObjectAggregator(64 * 1024));
+		// streaming routes take their requests before the aggregator sees them
+		pipeline.addLast(new StreamingRequestHandler(routeTable));
+		pipeline.addLast(new HttpObjectAggregator(config.getMaxContentLength()));
 		
 		addHttpServerHandler(pipeline);
 	}
 
 	protected void addHttpServerHandler(ChannelPipeline pipeline) {
-		pipeline.addLast(new HttpRequestHandler(routeTable));
+		pipeline.addLast(new HttpRequestHandler(routeTable, config, metrics));
 	}
 }
@@ -0,0 +1,37 @@
+package org.example.netty.webserver;
+
+import org.example.netty.webserver.ConnectionMetrics.CloseReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+/**
+ * Closes an HTTP connection once its {@link IdleStateHandler} reports it idle,
+ * so that keep-alive connections of clients that went away without a FIN do
+ * not hold a file descriptor forever. A connection with a request still
+ * waiting for its handler is left alone, however long that takes.
+ *
+ * @author gang
+ *
+ */
+class IdleConnectionHandler extends ChannelInboundHandlerAdapter {
+	private static final Logger logger = LoggerFactory.getLogger(IdleConnectionHandler.class);
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (!(evt instanceof IdleStateEvent)) {
+			super.userEventTriggered(ctx, evt);
+			return;
+		}
+		if (ResponseSequencer.of(ctx.channel()).pending() > 0)
+			return;
+
+		logger.debug("Closing {}, {}", ctx.channel(), ((IdleStateEvent) evt).state());
+		ConnectionMetrics.closing(ctx.channel(), CloseReason.IDLE);
+		ctx.close();
+	}
+}
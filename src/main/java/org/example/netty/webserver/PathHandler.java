@@ -0,0 +1,21 @@
+package org.example.netty.webserver;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * A {@link Handler} for template routes that reads path parameters, e.g.
+ *
+ * <pre>
+ * httpd.get("/users/{id:long}", (PathHandler) (request, params) -&gt; users.find(params.getLong("id")));
+ * </pre>
+ */
+@FunctionalInterface
+public interface PathHandler extends Handler {
+	@Override
+	Object handle(HttpRequest request, PathParams params) throws Exception;
+
+	@Override
+	default Object handle(HttpRequest request) throws Exception {
+		return handle(request, PathParams.EMPTY);
+	}
+}
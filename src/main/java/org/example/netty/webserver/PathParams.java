@@ -0,0 +1,161 @@
+package org.example.netty.webserver;
+
+/**
+ * Path parameters extracted from a template route such as {@code /users/{id:int}}.
+ * <p>
+ * Values are the raw (not percent-decoded) path segments.
+ *
+ * @author gang
+ *
+ */
+public final class PathParams {
+	public static final PathParams EMPTY = new PathParams(new String[0], new String[0]);
+
+	/**
+	 * Parameter types usable in a template, e.g. {@code {id:long}}. A parameter
+	 * without a type is a {@link #STRING}.
+	 */
+	public enum Type {
+		/** One non-empty path segment. */
+		STRING,
+		/** One path segment holding a 32-bit signed decimal. */
+		INT,
+		/** One path segment holding a 64-bit signed decimal. */
+		LONG,
+		/** The rest of the path, slashes included. Must be the last template part. */
+		PATH;
+
+		public static Type of(final String name) {
+			switch (name) {
+			case "":
+			case "string":
+				return STRING;
+			case "int":
+				return INT;
+			case "long":
+				return LONG;
+			case "path":
+				return PATH;
+			default:
+				throw new IllegalArgumentException("Unknown path parameter type: " + name);
+			}
+		}
+
+		/**
+		 * Checks the characters in {@code [from, to)} without allocating.
+		 */
+		boolean accepts(final CharSequence s, final int from, final int to) {
+			if (to <= from)
+				return false;
+
+			switch (this) {
+			case INT:
+				return isNumber(s, from, to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			case LONG:
+				return isNumber(s, from, to, Long.MIN_VALUE, Long.MAX_VALUE);
+			default:
+				return true;
+			}
+		}
+
+		// same accumulation as Long.parseLong, so no overflowing value is accepted
+		private static boolean isNumber(final CharSequence s, final int from, final int to,
+				final long min, final long max) {
+			final boolean negative = s.charAt(from) == '-';
+			int i = negative ? from + 1 : from;
+			if (i == to)
+				return false;
+
+			final long limit = negative ? min : -max;
+			final long multmin = limit / 10;
+			long result = 0;
+			for (; i < to; i++) {
+				final int digit = s.charAt(i) - '0';
+				if (digit < 0 || digit > 9)
+					return false;
+				if (result < multmin)
+					return false;
+				result *= 10;
+				if (result < limit + digit)
+					return false;
+				result -= digit;
+			}
+			return true;
+		}
+	}
+
+	private final String[] names;
+	private final String[] values;
+
+	PathParams(final String[] names, final String[] values) {
+		this.names = names;
+		this.values = values;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public boolean isEmpty() {
+		return names.length == 0;
+	}
+
+	public String name(final int index) {
+		return names[index];
+	}
+
+	public String value(final int index) {
+		return values[index];
+	}
+
+	/**
+	 * @return the parameter value, or null when the route has no such parameter
+	 */
+	public String get(final String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name))
+				return values[i];
+		}
+		return null;
+	}
+
+	public int getInt(final String name) {
+		return Integer.parseInt(require(name));
+	}
+
+	public long getLong(final String name) {
+		return Long.parseLong(require(name));
+	}
+
+	private String require(final String name) {
+		final String value = get(name);
+		if (value == null)
+			throw new IllegalArgumentException("No path parameter: " + name);
+		return value;
+	}
+
+	/**
+	 * @return the index where the path part of the request URI ends, i.e. the
+	 *         first {@code '?'} or {@code '#'}, or the URI length
+	 */
+	static int pathEnd(final String uri) {
+		final int len = uri.length();
+		for (int i = 0; i < len; i++) {
+			final char c = uri.charAt(i);
+			if (c == '?' || c == '#')
+				return i;
+		}
+		return len;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(names[i]).append('=').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,191 @@
+package org.example.netty.webserver;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.example.netty.webserver.ConnectionMetrics.CloseReason;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+
+/**
+ * Renders {@link ServerMetrics} in the Prometheus text exposition format,
+ * see {@link HttpServer#metrics(String)}.
+ *
+ * @author gang
+ *
+ */
+public final class PrometheusMetrics {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+
+	private static final String UNMATCHED = "unmatched";
+
+	private PrometheusMetrics() {
+	}
+
+	public static String format(ServerMetrics metrics) {
+		final StringBuilder sb = new StringBuilder(4096);
+
+		final List<RouteMetrics> routes = new ArrayList<RouteMetrics>(metrics.getRoutes());
+		routes.sort(Comparator.comparing(RouteMetrics::getPath).thenComparing(RouteMetrics::getMethod));
+		routes.add(metrics.getUnmatched());
+
+		header(sb, "http_requests_total", "counter", "Requests by route and status class.");
+		for (RouteMetrics route : routes) {
+			for (int statusClass = 1; statusClass <= 5; statusClass++) {
+				final long n = route.getRequests(statusClass);
+				if (n != 0)
+					sample(sb, "http_requests_total", labels(route) + ",status=\"" + statusClass + "xx\"", n);
+			}
+		}
+
+		header(sb, "http_request_body_bytes_total", "counter", "Request body bytes received by route.");
+		for (RouteMetrics route : routes)
+			sample(sb, "http_request_body_bytes_total", labels(route), route.getBytesIn());
+
+		header(sb, "http_response_body_bytes_total", "counter",
+				"Response body bytes written by route, after compression.");
+		for (RouteMetrics route : routes)
+			sample(sb, "http_response_body_bytes_total", labels(route), route.getBytesOut());
+
+		header(sb, "http_request_duration_seconds", "histogram",
+				"Time from reading a request to writing its response, by route.");
+		for (RouteMetrics route : routes)
+			histogram(sb, "http_request_duration_seconds", labels(route), route.getLatency(),
+					route.getLatencyNanos());
+
+		final ConnectionMetrics connections = metrics.getConnections();
+		header(sb, "http_connections_opened_total", "counter", "Connections accepted.");
+		sample(sb, "http_connections_opened_total", null, connections.getOpened());
+		header(sb, "http_connections_active", "gauge", "Connections open now.");
+		sample(sb, "http_connections_active", null, connections.getActive());
+		header(sb, "http_connections_closed_total", "counter", "Connections closed by reason.");
+		for (CloseReason reason : CloseReason.values())
+			sample(sb, "http_connections_closed_total", "reason=\"" + reason.name().toLowerCase(Locale.ROOT) + "\"",
+					connections.getCloses(reason));
+
+		final WebSocketMetrics webSockets = metrics.getWebSockets();
+		header(sb, "websocket_unwritable_connections", "gauge",
+				"WebSocket connections above their write buffer high water mark.");
+		sample(sb, "websocket_unwritable_connections", null, webSockets.getUnwritable());
+		header(sb, "websocket_frames_dropped_total", "counter",
+				"Broadcast frames not sent to slow consumers, including coalesced ones.");
+		sample(sb, "websocket_frames_dropped_total", null, webSockets.getDropped());
+		header(sb, "websocket_frames_coalesced_total", "counter",
+				"Broadcast frames replaced by a newer frame of the same topic.");
+		sample(sb, "websocket_frames_coalesced_total", null, webSockets.getCoalesced());
+		header(sb, "websocket_slow_consumer_disconnects_total", "counter",
+				"WebSocket connections closed for staying unwritable beyond the grace period.");
+		sample(sb, "websocket_slow_consumer_disconnects_total", null, webSockets.getDisconnected());
+
+		final EventLoopMonitor eventLoops = metrics.getEventLoops();
+		if (eventLoops != null) {
+			header(sb, "eventloop_pending_tasks", "gauge", "Tasks waiting to run per event loop.");
+			for (EventLoopMonitor.Loop loop : eventLoops.getLoops())
+				sample(sb, "eventloop_pending_tasks", loopLabel(loop), loop.getPendingTasks());
+
+			header(sb, "eventloop_lag_seconds", "histogram", "How late the periodic probe ran per event loop.");
+			for (EventLoopMonitor.Loop loop : eventLoops.getLoops())
+				histogram(sb, "eventloop_lag_seconds", loopLabel(loop), loop.getLag(), loop.getLagNanos());
+
+			header(sb, "eventloop_blocked_total", "counter",
+					"Times an event loop was stuck in one task beyond the blocking threshold.");
+			for (EventLoopMonitor.Loop loop : eventLoops.getLoops())
+				sample(sb, "eventloop_blocked_total", loopLabel(loop), loop.getBlocked());
+		}
+
+		final ByteBufAllocator allocator = metrics.getAllocator();
+		if (allocator instanceof ByteBufAllocatorMetricProvider) {
+			final ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+			header(sb, "netty_allocator_used_bytes", "gauge", "Memory held by the buffer allocator.");
+			sample(sb, "netty_allocator_used_bytes", "type=\"direct\"", metric.usedDirectMemory());
+			sample(sb, "netty_allocator_used_bytes", "type=\"heap\"", metric.usedHeapMemory());
+		}
+		if (allocator instanceof PooledByteBufAllocator) {
+			final PooledByteBufAllocatorMetric metric = ((PooledByteBufAllocator) allocator).metric();
+			header(sb, "netty_allocator_arenas", "gauge", "Arenas of the pooled allocator.");
+			sample(sb, "netty_allocator_arenas", "type=\"direct\"", metric.numDirectArenas());
+			sample(sb, "netty_allocator_arenas", "type=\"heap\"", metric.numHeapArenas());
+			header(sb, "netty_allocator_active_allocations", "gauge", "Pooled buffers not yet released.");
+			sample(sb, "netty_allocator_active_allocations", "type=\"direct\"",
+					activeAllocations(metric.directArenas()));
+			sample(sb, "netty_allocator_active_allocations", "type=\"heap\"", activeAllocations(metric.heapArenas()));
+			header(sb, "netty_allocator_thread_local_caches", "gauge", "Threads with a buffer cache.");
+			sample(sb, "netty_allocator_thread_local_caches", null, metric.numThreadLocalCaches());
+			header(sb, "netty_allocator_chunk_size_bytes", "gauge", "Bytes an arena allocates at a time.");
+			sample(sb, "netty_allocator_chunk_size_bytes", null, metric.chunkSize());
+		}
+
+		return sb.toString();
+	}
+
+	private static long activeAllocations(List<PoolArenaMetric> arenas) {
+		long n = 0;
+		for (PoolArenaMetric arena : arenas)
+			n += arena.numActiveAllocations();
+		return n;
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, long value) {
+		sb.append(name);
+		if (labels != null)
+			sb.append('{').append(labels).append('}');
+		sb.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Writes a histogram of microsecond buckets, see
+	 * {@link RouteMetrics#LATENCY_BOUNDS_MICROS}, in seconds. The bounds are
+	 * written as plain decimals, e.g. {@code le="0.0001"}.
+	 */
+	private static void histogram(StringBuilder sb, String name, String labels, long[] buckets, long sumNanos) {
+		long cumulative = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			cumulative += buckets[i];
+			sb.append(name).append("_bucket{").append(labels).append(",le=\"");
+			if (i < RouteMetrics.LATENCY_BOUNDS_MICROS.length)
+				sb.append(BigDecimal.valueOf(RouteMetrics.LATENCY_BOUNDS_MICROS[i], 6).stripTrailingZeros().toPlainString());
+			else
+				sb.append("+Inf");
+			sb.append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_sum{").append(labels).append("} ").append(sumNanos / 1e9).append('\n');
+		sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+	}
+
+	private static String labels(RouteMetrics route) {
+		final StringBuilder sb = new StringBuilder(64).append("method=\"");
+		escape(sb, route.getMethod() != null ? route.getMethod() : "");
+		sb.append("\",route=\"");
+		escape(sb, route.getPath() != null ? route.getPath() : UNMATCHED);
+		return sb.append('"').toString();
+	}
+
+	private static String loopLabel(EventLoopMonitor.Loop loop) {
+		return "loop=\"" + loop.getIndex() + "\"";
+	}
+
+	private static void escape(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\' || c == '"')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else
+				sb.append(c);
+		}
+	}
+}
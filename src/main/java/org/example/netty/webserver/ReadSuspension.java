@@ -0,0 +1,51 @@
+package org.example.netty.webserver;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * The single owner of a channel's auto-read flag. Every component that pauses
+ * reading for backpressure, such as the {@link ResponseSequencer} and streamed
+ * request bodies, suspends and later resumes it here; reading goes on only
+ * once all of them have resumed, so none can re-enable reads another one
+ * paused. One per channel, only used on the channel's event loop.
+ *
+ * @author gang
+ *
+ */
+final class ReadSuspension {
+	static final AttributeKey<ReadSuspension> KEY = AttributeKey.valueOf(ReadSuspension.class, "suspension");
+
+	private final Channel channel;
+	private int count;
+
+	private ReadSuspension(Channel channel) {
+		this.channel = channel;
+	}
+
+	static ReadSuspension of(Channel channel) {
+		ReadSuspension suspension = channel.attr(KEY).get();
+		if (suspension == null) {
+			suspension = new ReadSuspension(channel);
+			channel.attr(KEY).set(suspension);
+		}
+		return suspension;
+	}
+
+	void suspend() {
+		if (count++ == 0)
+			channel.config().setAutoRead(false);
+	}
+
+	/**
+	 * Undoes one {@link #suspend}.
+	 */
+	void resume() {
+		if (count > 0 && --count == 0)
+			channel.config().setAutoRead(true);
+	}
+
+	boolean isSuspended() {
+		return count > 0;
+	}
+}
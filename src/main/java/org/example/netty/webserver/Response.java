@@ -0,0 +1,73 @@
+package org.example.netty.webserver;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * A response with a status, content type or extra headers, for handlers that
+ * need more than returning the body. The body may be a
+ * {@link io.netty.buffer.ByteBuf} (written as is and released by the server), a
+ * {@code byte[]} (wrapped, not copied), a {@link CharSequence} (encoded
+ * straight into a pooled buffer) or null.
+ *
+ * <pre>
+ * return Response.ok(json).contentType(HttpRequestHandler.TYPE_JSON);
+ * </pre>
+ *
+ * @author gang
+ *
+ */
+public final class Response {
+	private final HttpResponseStatus status;
+	private final Object body;
+	private CharSequence contentType;
+	private HttpHeaders headers;
+
+	private Response(HttpResponseStatus status, Object body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	public static Response ok(Object body) {
+		return new Response(HttpResponseStatus.OK, body);
+	}
+
+	public static Response status(HttpResponseStatus status, Object body) {
+		return new Response(status, body);
+	}
+
+	public Response contentType(CharSequence contentType) {
+		this.contentType = contentType;
+		return this;
+	}
+
+	public Response header(CharSequence name, Object value) {
+		if (headers == null)
+			headers = new DefaultHttpHeaders(false);
+		headers.add(name, value);
+		return this;
+	}
+
+	public HttpResponseStatus getStatus() {
+		return status;
+	}
+
+	public Object getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the content type, or null for the default of the body type
+	 */
+	public CharSequence getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the extra headers, or null when none were set
+	 */
+	public HttpHeaders getHeaders() {
+		return headers;
+	}
+}
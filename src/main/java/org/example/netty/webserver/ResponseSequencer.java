@@ -0,0 +1,100 @@
+package org.example.netty.webserver;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+
+/**
+ * Keeps the responses of pipelined HTTP/1.1 requests in request order. Each
+ * request takes a sequence number when it is read; its response is written as
+ * soon as all earlier responses have been written, otherwise it waits here.
+ * Handlers that finish out of order, because they run on a
+ * {@link HandlerExecutor} or complete asynchronously, therefore never reorder
+ * responses on the wire.
+ * <p>
+ * Reading pauses while {@code maxPipelined} requests are waiting for their
+ * response. There is one sequencer per channel and it is only used on the
+ * channel's event loop.
+ *
+ * @author gang
+ *
+ */
+final class ResponseSequencer {
+	static final AttributeKey<ResponseSequencer> KEY = AttributeKey.valueOf(ResponseSequencer.class, "sequencer");
+
+	private final Channel channel;
+	private final int maxPipelined;
+	private final IntObjectMap<Runnable> ready = new IntObjectHashMap<Runnable>(4);
+
+	private int nextSeq;
+	private int writeSeq;
+	private boolean paused;
+	private boolean closed;
+
+	ResponseSequencer(Channel channel, int maxPipelined) {
+		this.channel = channel;
+		this.maxPipelined = Math.max(1, maxPipelined);
+	}
+
+	static ResponseSequencer of(Channel channel) {
+		ResponseSequencer sequencer = channel.attr(KEY).get();
+		if (sequencer == null) {
+			sequencer = new ResponseSequencer(channel, HttpServerConfig.DEFAULT_MAX_PIPELINED_REQUESTS);
+			channel.attr(KEY).set(sequencer);
+		}
+		return sequencer;
+	}
+
+	/**
+	 * @return the sequence number of the request just read
+	 */
+	int acquire() {
+		final int seq = nextSeq++;
+		if (!paused && nextSeq - writeSeq >= maxPipelined) {
+			paused = true;
+			ReadSuspension.of(channel).suspend();
+		}
+		return seq;
+	}
+
+	/**
+	 * Writes the response of request {@code seq} now, or once the responses
+	 * before it have been written.
+	 */
+	void complete(int seq, Runnable write) {
+		if (closed) {
+			// lets the write fail and release what it holds
+			write.run();
+			return;
+		}
+		if (seq != writeSeq) {
+			ready.put(seq, write);
+			return;
+		}
+
+		write.run();
+		writeSeq++;
+		for (Runnable next; (next = ready.remove(writeSeq)) != null; writeSeq++)
+			next.run();
+
+		if (paused && nextSeq - writeSeq < maxPipelined) {
+			paused = false;
+			ReadSuspension.of(channel).resume();
+		}
+	}
+
+	/**
+	 * @return requests read but not answered yet
+	 */
+	int pending() {
+		return nextSeq - writeSeq;
+	}
+
+	void close() {
+		closed = true;
+		for (Runnable write : ready.values())
+			write.run();
+		ready.clear();
+	}
+}
@@ -1,35 +1,291 @@
 package org.example.netty.webserver;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.netty.handler.codec.http.HttpMethod;
 
+/**
+ * A route is either a path template, e.g. {@code /users/{id:int}/posts}, indexed
+ * by the {@link RouteTable} radix trie, or a regular expression matched against
+ * the whole request URI as a fallback.
+ * <p>
+ * A path is treated as a regular expression when it contains any of
+ * {@code \ ^ $ ( ) [ ] * + ? |}, or a <code>{</code> that does not open a whole
+ * path segment. A {@code '.'} in a template is literal.
+ */
 public class Route {
+    private static final String REGEX_META = "\\^$()[]*+?|";
+
     private final HttpMethod method;
+    private final String path;
     private final Pattern uriPattern;
+    private final Object[] parts;
+    private final String[] paramNames;
     private final Handler handler;
+    private final StreamingHandler streamingHandler;
+    private final WebSocketHandler webSocketHandler;
+    private final RouteOptions options;
+    private final String name;
 
     public Route(final HttpMethod method, Pattern uriPattern, final Handler handler) {
         this.method = method;
+        this.path = uriPattern.pattern();
         this.uriPattern = uriPattern;
+        this.parts = null;
+        this.paramNames = new String[0];
         this.handler = handler;
+        this.streamingHandler = null;
+        this.webSocketHandler = null;
+        this.options = RouteOptions.DEFAULT;
+        this.name = method + " " + path;
+    }
+
+    public Route(final HttpMethod method, final String path, final Handler handler) {
+        this(method, path, handler, RouteOptions.DEFAULT);
+    }
+
+    public Route(final HttpMethod method, final String path, final Handler handler, final RouteOptions options) {
+        this(method, path, handler, null, null, options);
+    }
+
+    /**
+     * A route whose request body is streamed to the handler instead of being
+     * aggregated.
+     */
+    public Route(final HttpMethod method, final String path, final StreamingHandler handler,
+            final RouteOptions options) {
+        this(method, path, null, handler, null, options);
+    }
+
+    /**
+     * A GET route that upgrades its requests to WebSocket connections.
+     */
+    public Route(final String path, final WebSocketHandler handler) {
+        this(HttpMethod.GET, path, null, null, handler, RouteOptions.DEFAULT);
+    }
+
+    private Route(final HttpMethod method, final String path, final Handler handler,
+            final StreamingHandler streamingHandler, final WebSocketHandler webSocketHandler,
+            final RouteOptions options) {
+        this.method = method;
+        this.path = path;
+        this.handler = handler;
+        this.streamingHandler = streamingHandler;
+        this.webSocketHandler = webSocketHandler;
+        this.options = options;
+        this.name = method + " " + path;
+
+        if (isTemplate(path)) {
+            this.uriPattern = null;
+            this.parts = parseTemplate(path);
+
+            final List<String> names = new ArrayList<String>();
+            for (final Object part : parts) {
+                if (part instanceof Param)
+                    names.add(((Param) part).name);
+            }
+            this.paramNames = names.toArray(new String[names.size()]);
+        } else {
+            this.uriPattern = Pattern.compile(path);
+            this.parts = null;
+            this.paramNames = new String[0];
+        }
     }
 
     public HttpMethod getMethod() {
         return method;
     }
 
+    public String getPath() {
+        return path;
+    }
+
     public Handler getHandler() {
         return handler;
     }
 
+    /**
+     * @return the handler of a streaming route, null for other routes
+     */
+    public StreamingHandler getStreamingHandler() {
+        return streamingHandler;
+    }
+
+    public boolean isStreaming() {
+        return streamingHandler != null;
+    }
+
+    /**
+     * @return the handler of a WebSocket route, null for other routes
+     */
+    public WebSocketHandler getWebSocketHandler() {
+        return webSocketHandler;
+    }
+
+    public boolean isWebSocket() {
+        return webSocketHandler != null;
+    }
+
+    public RouteOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return true when this route is indexed by the radix trie, false when it
+     *         is a regular expression
+     */
+    public boolean isTemplate() {
+        return parts != null;
+    }
+
+    Object[] parts() {
+        return parts;
+    }
+
     public boolean matches(final HttpMethod method, final String path) {
         if (!this.method.equals(method))
         	return false;
-        
+
+        if (parts != null)
+            return matchesTemplate(path);
+
         final Matcher matcher = uriPattern.matcher(path);
-        
+
         return matcher.matches();
     }
+
+    private boolean matchesTemplate(final String uri) {
+        final int end = PathParams.pathEnd(uri);
+        int pos = 0;
+        for (final Object part : parts) {
+            if (part instanceof String) {
+                final String literal = (String) part;
+                if (end - pos < literal.length() || !uri.regionMatches(pos, literal, 0, literal.length()))
+                    return false;
+                pos += literal.length();
+            } else {
+                final Param param = (Param) part;
+                final int segEnd = param.type == PathParams.Type.PATH ? end : segmentEnd(uri, pos, end);
+                if (!param.type.accepts(uri, pos, segEnd))
+                    return false;
+                pos = segEnd;
+            }
+        }
+        return pos == end;
+    }
+
+    /**
+     * Extracts the path parameters of a request URI this route has matched.
+     * Routes without parameters return {@link PathParams#EMPTY} and allocate
+     * nothing.
+     */
+    public PathParams extractParams(final String uri) {
+        if (paramNames.length == 0)
+            return PathParams.EMPTY;
+
+        final int end = PathParams.pathEnd(uri);
+        final String[] values = new String[paramNames.length];
+        int pos = 0;
+        int p = 0;
+        for (final Object part : parts) {
+            if (part instanceof String) {
+                pos += ((String) part).length();
+            } else {
+                final Param param = (Param) part;
+                final int segEnd = param.type == PathParams.Type.PATH ? end : segmentEnd(uri, pos, end);
+                values[p++] = uri.substring(pos, segEnd);
+                pos = segEnd;
+            }
+        }
+        return new PathParams(paramNames, values);
+    }
+
+    static int segmentEnd(final String uri, final int from, final int end) {
+        for (int i = from; i < end; i++) {
+            if (uri.charAt(i) == '/')
+                return i;
+        }
+        return end;
+    }
+
+    static boolean isTemplate(final String path) {
+        if (path.isEmpty() || path.charAt(0) != '/')
+            return false;
+
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (REGEX_META.indexOf(c) >= 0)
+                return false;
+            if (c == '{' && path.charAt(i - 1) != '/')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits a template into literal {@link String}s and {@link Param}s. Every
+     * parameter spans a whole path segment.
+     */
+    static Object[] parseTemplate(final String path) {
+        final List<Object> parts = new ArrayList<Object>();
+        final List<String> names = new ArrayList<String>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < path.length()) {
+            if (path.charAt(i) != '{') {
+                i++;
+                continue;
+            }
+
+            final int close = path.indexOf('}', i);
+            if (close < 0)
+                throw new IllegalArgumentException("Unclosed path parameter in " + path);
+            if (close + 1 < path.length() && path.charAt(close + 1) != '/')
+                throw new IllegalArgumentException("Path parameter must span a whole segment in " + path);
+
+            parts.add(path.substring(literalStart, i));
+
+            final String spec = path.substring(i + 1, close);
+            final int colon = spec.indexOf(':');
+            final String name = colon < 0 ? spec : spec.substring(0, colon);
+            final PathParams.Type type = PathParams.Type.of(colon < 0 ? "" : spec.substring(colon + 1));
+            if (name.isEmpty() || name.indexOf('/') >= 0)
+                throw new IllegalArgumentException("Bad path parameter name in " + path);
+            if (names.contains(name))
+                throw new IllegalArgumentException("Duplicate path parameter " + name + " in " + path);
+            if (type == PathParams.Type.PATH && close + 1 != path.length())
+                throw new IllegalArgumentException("A path-typed parameter must be last in " + path);
+            names.add(name);
+            parts.add(new Param(name, type));
+
+            i = close + 1;
+            literalStart = i;
+        }
+        if (literalStart < path.length())
+            parts.add(path.substring(literalStart));
+
+        return parts.toArray();
+    }
+
+    static final class Param {
+        final String name;
+        final PathParams.Type type;
+
+        Param(final String name, final PathParams.Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        boolean sameAs(final Param other) {
+            return name.equals(other.name) && type == other.type;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
 }
@@ -0,0 +1,111 @@
+package org.example.netty.webserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters of one route: requests by status class, request and
+ * response body bytes, and a latency histogram with fixed buckets, from the
+ * request being read to its response being written. Routes replaced under the
+ * same method and path keep counting into the same instance. All counters are
+ * {@link LongAdder}s, so event loops never contend on them.
+ *
+ * @author gang
+ *
+ */
+public class RouteMetrics {
+	/** upper bounds of the latency buckets in microseconds; the last is unbounded */
+	public static final long[] LATENCY_BOUNDS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+			100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+	private final String method;
+	private final String path;
+
+	private final LongAdder[] statusClasses = new LongAdder[5];
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder[] latency = new LongAdder[LATENCY_BOUNDS_MICROS.length + 1];
+	private final LongAdder latencyNanos = new LongAdder();
+
+	/**
+	 * @param method the route's method, null for requests that matched no
+	 *            route
+	 * @param path the route's path as registered, null likewise
+	 */
+	RouteMetrics(String method, String path) {
+		this.method = method;
+		this.path = path;
+		for (int i = 0; i < statusClasses.length; i++)
+			statusClasses[i] = new LongAdder();
+		for (int i = 0; i < latency.length; i++)
+			latency[i] = new LongAdder();
+	}
+
+	void record(int status, long requestBytes, long responseBytes, long nanos) {
+		final int statusClass = status / 100 - 1;
+		if (statusClass >= 0 && statusClass < statusClasses.length)
+			statusClasses[statusClass].increment();
+		bytesIn.add(requestBytes);
+		bytesOut.add(responseBytes);
+
+		final long micros = nanos / 1000;
+		int bucket = 0;
+		while (bucket < LATENCY_BOUNDS_MICROS.length && micros > LATENCY_BOUNDS_MICROS[bucket])
+			bucket++;
+		latency[bucket].increment();
+		latencyNanos.add(nanos);
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getRequests() {
+		long n = 0;
+		for (LongAdder count : statusClasses)
+			n += count.sum();
+		return n;
+	}
+
+	/**
+	 * @param statusClass 1 to 5, for 1xx to 5xx
+	 */
+	public long getRequests(int statusClass) {
+		return statusClasses[statusClass - 1].sum();
+	}
+
+	/**
+	 * @return request body bytes received
+	 */
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * @return response body bytes written, after compression
+	 */
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * @return requests per bucket of {@link #LATENCY_BOUNDS_MICROS}, plus one
+	 *         for slower ones
+	 */
+	public long[] getLatency() {
+		final long[] counts = new long[latency.length];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = latency[i].sum();
+		return counts;
+	}
+
+	/**
+	 * @return the summed latency of all requests in nanoseconds
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos.sum();
+	}
+}
@@ -0,0 +1,113 @@
+package org.example.netty.webserver;
+
+import java.util.ArrayDeque;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+
+/**
+ * Sits right behind the HTTP codec of every connection and times each request
+ * from its first byte being decoded to the last part of its response being
+ * written, counting the body bytes either way. The request handlers tell it
+ * which route a request matched; requests that matched none are counted
+ * together. Responses leave in request order, so pipelined requests are
+ * simply kept in a queue. One instance per channel.
+ *
+ * @author gang
+ *
+ */
+class RouteMetricsHandler extends ChannelDuplexHandler {
+	private static final AttributeKey<RouteMetricsHandler> KEY = AttributeKey.valueOf(RouteMetricsHandler.class,
+			"handler");
+
+	private final ServerMetrics metrics;
+	private final ArrayDeque<Exchange> exchanges = new ArrayDeque<Exchange>(4);
+
+	RouteMetricsHandler(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Attributes the request being read on the channel to a route. Called on
+	 * the event loop while the request is dispatched.
+	 */
+	static void matched(Channel channel, Route route) {
+		final RouteMetricsHandler handler = channel.attr(KEY).get();
+		if (handler != null && !handler.exchanges.isEmpty())
+			handler.exchanges.peekLast().route = handler.metrics.getRoute(route);
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		ctx.channel().attr(KEY).set(this);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof HttpRequest)
+			exchanges.add(new Exchange(System.nanoTime()));
+		if (msg instanceof HttpContent && !exchanges.isEmpty())
+			exchanges.peekLast().bytesIn += ((HttpContent) msg).content().readableBytes();
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		final Exchange exchange = exchanges.peek();
+		if (exchange != null) {
+			if (msg instanceof HttpResponse) {
+				final int status = ((HttpResponse) msg).status().code();
+				// 100 Continue is followed by the real response
+				if (status == HttpResponseStatus.CONTINUE.code()) {
+					ctx.write(msg, promise);
+					return;
+				}
+				exchange.status = status;
+			}
+
+			if (msg instanceof ByteBufHolder)
+				exchange.bytesOut += ((ByteBufHolder) msg).content().readableBytes();
+			else if (msg instanceof ByteBuf)
+				exchange.bytesOut += ((ByteBuf) msg).readableBytes();
+			else if (msg instanceof FileRegion)
+				exchange.bytesOut += ((FileRegion) msg).count();
+
+			if (msg instanceof LastHttpContent) {
+				exchanges.poll();
+				final RouteMetrics route = exchange.route != null ? exchange.route : metrics.getUnmatched();
+				route.record(exchange.status, exchange.bytesIn, exchange.bytesOut, System.nanoTime() - exchange.start);
+			}
+		}
+		ctx.write(msg, promise);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		// requests without a response are not counted
+		exchanges.clear();
+		super.channelInactive(ctx);
+	}
+
+	private static final class Exchange {
+		final long start;
+		RouteMetrics route;
+		int status;
+		long bytesIn;
+		long bytesOut;
+
+		Exchange(long start) {
+			this.start = start;
+		}
+	}
+}
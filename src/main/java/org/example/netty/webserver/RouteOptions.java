@@ -0,0 +1,79 @@
+package org.example.netty.webserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-route settings. Instances are immutable; every setter returns a copy, so
+ * one instance can be shared by many routes:
+ *
+ * <pre>
+ * RouteOptions jdbc = RouteOptions.DEFAULT.executor(HandlerExecutor.bounded("jdbc", 16, 256));
+ * httpd.get("/orders/{id:long}", ordersHandler, jdbc);
+ * </pre>
+ *
+ * @author gang
+ *
+ */
+public final class RouteOptions implements Cloneable {
+	/** Handlers run inline on the event loop. */
+	public static final RouteOptions DEFAULT = new RouteOptions();
+
+	private HandlerExecutor executor;
+	private long timeoutMillis;
+	private boolean etag;
+
+	private RouteOptions() {
+	}
+
+	/**
+	 * @param executor where the handler runs, or null to run it on the event loop
+	 */
+	public RouteOptions executor(HandlerExecutor executor) {
+		RouteOptions copy = copy();
+		copy.executor = executor;
+		return copy;
+	}
+
+	public HandlerExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Limits how long an asynchronous handler may take before the client gets
+	 * 504 Gateway Timeout and the pending stage is cancelled.
+	 *
+	 * @param timeout the timeout, or 0 for none
+	 */
+	public RouteOptions timeout(long timeout, TimeUnit unit) {
+		RouteOptions copy = copy();
+		copy.timeoutMillis = unit.toMillis(timeout);
+		return copy;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Tags 200 responses with a hash of their body, so clients revalidating
+	 * with If-None-Match get 304 Not Modified without the body. The handler
+	 * still runs; this saves bandwidth, not work.
+	 */
+	public RouteOptions etag(boolean etag) {
+		RouteOptions copy = copy();
+		copy.etag = etag;
+		return copy;
+	}
+
+	public boolean isETag() {
+		return etag;
+	}
+
+	private RouteOptions copy() {
+		try {
+			return (RouteOptions) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
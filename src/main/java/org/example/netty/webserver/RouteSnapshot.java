@@ -0,0 +1,109 @@
+package org.example.netty.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * An immutable, versioned view of a {@link RouteTable}. The tries are built
+ * once when the snapshot is created and never change afterwards, so any number
+ * of event loop threads may read a snapshot without locking while a newer one
+ * is being published.
+ *
+ * @author gang
+ *
+ */
+public final class RouteSnapshot {
+	static final RouteSnapshot EMPTY = new RouteSnapshot(0, Collections.<Route>emptyList());
+
+	private final long version;
+	private final List<Route> routes;
+	private final Map<HttpMethod, RouteTrie> tries;
+	private final boolean streaming;
+
+	private RouteSnapshot(final long version, final List<Route> routes) {
+		this.version = version;
+		this.routes = routes;
+		this.tries = new HashMap<HttpMethod, RouteTrie>();
+		boolean streaming = false;
+		for (final Route route : routes) {
+			streaming |= route.isStreaming();
+			RouteTrie trie = tries.get(route.getMethod());
+			if (trie == null) {
+				trie = new RouteTrie();
+				tries.put(route.getMethod(), trie);
+			}
+			trie.add(route);
+		}
+		this.streaming = streaming;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the routes in registration order
+	 */
+	public List<Route> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * @return true if any route streams its request body, see
+	 *         {@link StreamingHandler}
+	 */
+	public boolean hasStreamingRoutes() {
+		return streaming;
+	}
+
+	public Route findRoute(final HttpMethod method, final String path) {
+		final RouteTrie trie = this.tries.get(method);
+		return trie == null ? null : trie.find(path);
+	}
+
+	/**
+	 * @return a new snapshot with the route added, replacing any route with the
+	 *         same method and path
+	 */
+	RouteSnapshot with(final Route route) {
+		final List<Route> copy = new ArrayList<Route>(routes.size() + 1);
+		for (final Route r : routes) {
+			if (!sameRoute(r, route.getMethod(), route.getPath()))
+				copy.add(r);
+		}
+		copy.add(route);
+		return new RouteSnapshot(version + 1, Collections.unmodifiableList(copy));
+	}
+
+	/**
+	 * @return a new snapshot without the route, or this snapshot when there is
+	 *         no such route
+	 */
+	RouteSnapshot without(final HttpMethod method, final String path) {
+		final List<Route> copy = new ArrayList<Route>(routes.size());
+		for (final Route r : routes) {
+			if (!sameRoute(r, method, path))
+				copy.add(r);
+		}
+		if (copy.size() == routes.size())
+			return this;
+		return new RouteSnapshot(version + 1, Collections.unmodifiableList(copy));
+	}
+
+	Route get(final HttpMethod method, final String path) {
+		for (final Route r : routes) {
+			if (sameRoute(r, method, path))
+				return r;
+		}
+		return null;
+	}
+
+	private static boolean sameRoute(final Route r, final HttpMethod method, final String path) {
+		return r.getMethod().equals(method) && r.getPath().equals(path);
+	}
+}
@@ -1,33 +1,66 @@
 package org.example.netty.webserver;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.netty.handler.codec.http.HttpMethod;
 
 /**
- * TODO thread safe and performance
- * 
+ * Routes indexed per HTTP method, see {@link RouteTrie}. Template routes are
+ * matched against the path part of the URI, a literal edge wins over a path
+ * parameter, and regular expression routes are the fallback.
+ * <p>
+ * Routes can be added and removed at runtime. Every change builds a new
+ * {@link RouteSnapshot} and publishes it with a compare-and-set, so lookups on
+ * the event loops never lock and always see one consistent version.
+ *
  * @author gang
  *
  */
 public class RouteTable {
-    private final ArrayList<Route> routes;
+    private final AtomicReference<RouteSnapshot> snapshot;
 
     public RouteTable() {
-        this.routes = new ArrayList<Route>();
+        this.snapshot = new AtomicReference<RouteSnapshot>(RouteSnapshot.EMPTY);
     }
 
+    /**
+     * Adds a route, replacing any route with the same method and path.
+     *
+     * @throws IllegalArgumentException if the route's path parameters conflict
+     *             with an existing route; the table is left unchanged
+     */
     public void addRoute(final Route route) {
-        this.routes.add(route);
+        for (;;) {
+            final RouteSnapshot current = this.snapshot.get();
+            if (this.snapshot.compareAndSet(current, current.with(route)))
+                return;
+        }
     }
 
-    public Route findRoute(final HttpMethod method, final String path) {
-        for (final Route route : routes) {
-            if (route.matches(method, path)) {
+    /**
+     * Removes the route registered with exactly this method and path.
+     *
+     * @return the removed route, or null if there was none
+     */
+    public Route removeRoute(final HttpMethod method, final String path) {
+        for (;;) {
+            final RouteSnapshot current = this.snapshot.get();
+            final Route route = current.get(method, path);
+            if (route == null)
+                return null;
+            if (this.snapshot.compareAndSet(current, current.without(method, path)))
                 return route;
-            }
         }
+    }
 
-        return null;
+    /**
+     * @return the current routes; the snapshot never changes once returned
+     */
+    public RouteSnapshot snapshot() {
+        return this.snapshot.get();
+    }
+
+    public Route findRoute(final HttpMethod method, final String path) {
+        return this.snapshot.get().findRoute(method, path);
     }
 }
@@ -0,0 +1,157 @@
+package org.example.netty.webserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The routes of one HTTP method. Template routes live in a radix trie whose
+ * literal edges are compared in place against the request URI, so a lookup is
+ * O(path length) and allocates nothing. Regular expression routes are only
+ * tried, in registration order, when the trie has no match.
+ *
+ * @author gang
+ *
+ */
+final class RouteTrie {
+	private static final char[] NO_INDICES = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final Node root = new Node("");
+	private final List<Route> patterns = new ArrayList<Route>();
+
+	void add(final Route route) {
+		if (!route.isTemplate()) {
+			patterns.add(route);
+			return;
+		}
+
+		Node node = root;
+		for (final Object part : route.parts()) {
+			if (part instanceof String)
+				node = insertLiteral(node, (String) part);
+			else
+				node = insertParam(node, (Route.Param) part, route);
+		}
+		node.route = route;
+	}
+
+	Route find(final String uri) {
+		final Route route = find(root, uri, 0, PathParams.pathEnd(uri));
+		if (route != null)
+			return route;
+
+		for (int i = 0; i < patterns.size(); i++) {
+			final Route r = patterns.get(i);
+			if (r.matches(r.getMethod(), uri))
+				return r;
+		}
+		return null;
+	}
+
+	private static Route find(final Node node, final String uri, int pos, final int end) {
+		if (node.param != null) {
+			final int segEnd = node.param.type == PathParams.Type.PATH ? end : Route.segmentEnd(uri, pos, end);
+			if (!node.param.type.accepts(uri, pos, segEnd))
+				return null;
+			pos = segEnd;
+		} else {
+			final int len = node.prefix.length();
+			if (end - pos < len || !uri.regionMatches(pos, node.prefix, 0, len))
+				return null;
+			pos += len;
+		}
+
+		if (pos == end)
+			return node.route;
+
+		// literal edges take precedence over parameters
+		final int i = node.indexOf(uri.charAt(pos));
+		if (i >= 0) {
+			final Route route = find(node.children[i], uri, pos, end);
+			if (route != null)
+				return route;
+		}
+		if (node.paramChild != null)
+			return find(node.paramChild, uri, pos, end);
+
+		return null;
+	}
+
+	private static Node insertLiteral(final Node parent, final String s) {
+		if (s.isEmpty())
+			return parent;
+
+		final int i = parent.indexOf(s.charAt(0));
+		if (i < 0) {
+			final Node child = new Node(s);
+			parent.addChild(child);
+			return child;
+		}
+
+		Node child = parent.children[i];
+		final int common = commonPrefix(child.prefix, s);
+		if (common < child.prefix.length()) {
+			// split the edge: parent -> mid(common part) -> child(remainder)
+			final Node mid = new Node(child.prefix.substring(0, common));
+			child.prefix = child.prefix.substring(common);
+			mid.addChild(child);
+			parent.children[i] = mid;
+			child = mid;
+		}
+		return insertLiteral(child, s.substring(common));
+	}
+
+	private static Node insertParam(final Node parent, final Route.Param param, final Route route) {
+		if (parent.paramChild == null) {
+			parent.paramChild = new Node(param);
+		} else if (!parent.paramChild.param.sameAs(param)) {
+			throw new IllegalArgumentException("Path parameter {" + param.name + "} of " + route
+					+ " conflicts with {" + parent.paramChild.param.name + "}");
+		}
+		return parent.paramChild;
+	}
+
+	private static int commonPrefix(final String a, final String b) {
+		final int max = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < max && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	private static final class Node {
+		String prefix;
+		final Route.Param param;
+		char[] indices = NO_INDICES;
+		Node[] children = NO_CHILDREN;
+		Node paramChild;
+		Route route;
+
+		Node(final String prefix) {
+			this.prefix = prefix;
+			this.param = null;
+		}
+
+		Node(final Route.Param param) {
+			this.prefix = "";
+			this.param = param;
+		}
+
+		int indexOf(final char c) {
+			final char[] indices = this.indices;
+			for (int i = 0; i < indices.length; i++) {
+				if (indices[i] == c)
+					return i;
+			}
+			return -1;
+		}
+
+		void addChild(final Node child) {
+			indices = Arrays.copyOf(indices, indices.length + 1);
+			indices[indices.length - 1] = child.prefix.charAt(0);
+			children = Arrays.copyOf(children, children.length + 1);
+			children[children.length - 1] = child;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package org.example.netty.webserver;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Everything a server counts about itself. One instance per {@link HttpServer},
+ * shared by all its channels.
+ *
+ * @author gang
+ *
+ */
+public class ServerMetrics {
+	private final ConnectionMetrics connections = new ConnectionMetrics();
+	private final WebSocketMetrics webSockets = new WebSocketMetrics();
+	private final ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<String, RouteMetrics>();
+	private final RouteMetrics unmatched = new RouteMetrics(null, null);
+	private volatile EventLoopMonitor eventLoops;
+	private volatile ByteBufAllocator allocator;
+
+	public ConnectionMetrics getConnections() {
+		return connections;
+	}
+
+	public WebSocketMetrics getWebSockets() {
+		return webSockets;
+	}
+
+	/**
+	 * @return the counters of the route's method and path, created on first
+	 *         use
+	 */
+	public RouteMetrics getRoute(Route route) {
+		final String key = route.toString();
+		// a plain get first, computeIfAbsent locks the bin on Java 8 even on a hit
+		final RouteMetrics metrics = routes.get(key);
+		if (metrics != null)
+			return metrics;
+		return routes.computeIfAbsent(key, k -> new RouteMetrics(route.getMethod().name(), route.getPath()));
+	}
+
+	/**
+	 * @return the counters of every route that has served a request
+	 */
+	public Collection<RouteMetrics> getRoutes() {
+		return routes.values();
+	}
+
+	/**
+	 * @return the health of the worker event loops, or null when they are not
+	 *         monitored
+	 */
+	public EventLoopMonitor getEventLoops() {
+		return eventLoops;
+	}
+
+	void setEventLoops(EventLoopMonitor eventLoops) {
+		this.eventLoops = eventLoops;
+	}
+
+	/**
+	 * @return the allocator of the server's channels; its usage includes
+	 *         everything else allocating from it, e.g. other servers when it
+	 *         is the shared default
+	 */
+	public ByteBufAllocator getAllocator() {
+		return allocator;
+	}
+
+	void setAllocator(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	/**
+	 * @return the counters of requests that matched no route
+	 */
+	public RouteMetrics getUnmatched() {
+		return unmatched;
+	}
+}
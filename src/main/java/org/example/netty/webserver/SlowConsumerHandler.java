@@ -0,0 +1,195 @@
+package org.example.netty.webserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.example.netty.webserver.ConnectionMetrics.CloseReason;
+import org.example.netty.webserver.HttpServerConfig.SlowConsumerPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Applies a {@link SlowConsumerPolicy} to a WebSocket connection whose
+ * outbound buffer went above the high water mark, so that a client that does
+ * not keep up with a {@link WebSocketHub} broadcast cannot make the server
+ * buffer without bound. One instance per channel; all state is touched on its
+ * event loop.
+ *
+ * @author gang
+ *
+ */
+class SlowConsumerHandler extends ChannelInboundHandlerAdapter {
+	private static final Logger logger = LoggerFactory.getLogger(SlowConsumerHandler.class);
+
+	static final AttributeKey<SlowConsumerHandler> KEY = AttributeKey.valueOf(SlowConsumerHandler.class, "handler");
+
+	private final WebSocketMetrics metrics;
+	private final long gracePeriodMillis;
+	private volatile SlowConsumerPolicy policy;
+
+	private volatile ChannelHandlerContext ctx;
+	private boolean upgraded;
+	private boolean unwritable;
+	private ScheduledFuture<?> disconnect;
+	/** the latest frame per topic while coalescing */
+	private final Map<String, Latest> latest = new LinkedHashMap<String, Latest>();
+
+	SlowConsumerHandler(SlowConsumerPolicy policy, long gracePeriodMillis, WebSocketMetrics metrics) {
+		this.policy = policy;
+		this.gracePeriodMillis = gracePeriodMillis;
+		this.metrics = metrics;
+	}
+
+	void setPolicy(SlowConsumerPolicy policy) {
+		this.policy = policy;
+		final ChannelHandlerContext ctx = this.ctx;
+		if (ctx == null)
+			return;
+		if (ctx.executor().inEventLoop()) {
+			policyChanged();
+		} else {
+			try {
+				ctx.executor().execute(this::policyChanged);
+			} catch (RejectedExecutionException ex) {
+				// event loop shut down, the channel is closed
+			}
+		}
+	}
+
+	/**
+	 * Arms or cancels the disconnect of a channel that is unwritable already.
+	 */
+	private void policyChanged() {
+		if (!unwritable)
+			return;
+		if (policy == SlowConsumerPolicy.DISCONNECT && disconnect == null) {
+			disconnect = ctx.executor().schedule(this::disconnect, gracePeriodMillis, TimeUnit.MILLISECONDS);
+		} else if (policy != SlowConsumerPolicy.DISCONNECT && disconnect != null) {
+			disconnect.cancel(false);
+			disconnect = null;
+		}
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+		ctx.channel().attr(KEY).set(this);
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt == WebSocketServerProtocolHandler.ServerHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+			upgraded = true;
+			if (!ctx.channel().isWritable())
+				becameUnwritable();
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	/**
+	 * Called by the hub instead of writing a frame while the channel is not
+	 * writable.
+	 *
+	 * @param payload the message, retained by the caller for this call only
+	 */
+	void offer(String topic, ByteBuf payload, boolean text) {
+		if (policy != SlowConsumerPolicy.COALESCE) {
+			metrics.dropped();
+			return;
+		}
+		final Latest previous = latest.put(topic, new Latest(payload.retainedDuplicate(), text));
+		if (previous != null) {
+			previous.payload.release();
+			metrics.dropped();
+			metrics.coalesced();
+		}
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (upgraded) {
+			if (!ctx.channel().isWritable() && !unwritable)
+				becameUnwritable();
+			else if (ctx.channel().isWritable() && unwritable)
+				becameWritable();
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
+	private void becameUnwritable() {
+		unwritable = true;
+		metrics.unwritable();
+		if (policy == SlowConsumerPolicy.DISCONNECT)
+			disconnect = ctx.executor().schedule(this::disconnect, gracePeriodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void becameWritable() {
+		unwritable = false;
+		metrics.writable();
+		if (disconnect != null) {
+			disconnect.cancel(false);
+			disconnect = null;
+		}
+
+		if (latest.isEmpty())
+			return;
+		final Channel channel = ctx.channel();
+		final Iterator<Latest> it = latest.values().iterator();
+		while (it.hasNext()) {
+			final Latest frame = it.next();
+			it.remove();
+			channel.write(frame.text ? new TextWebSocketFrame(frame.payload) : new BinaryWebSocketFrame(frame.payload),
+					channel.voidPromise());
+		}
+		channel.flush();
+	}
+
+	private void disconnect() {
+		disconnect = null;
+		if (!unwritable)
+			return;
+		logger.debug("Closing {}, it has not taken frames for {} ms", ctx.channel(), gracePeriodMillis);
+		metrics.disconnected();
+		ConnectionMetrics.closing(ctx.channel(), CloseReason.SLOW_CONSUMER);
+		ctx.close();
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (unwritable) {
+			unwritable = false;
+			metrics.writable();
+		}
+		if (disconnect != null) {
+			disconnect.cancel(false);
+			disconnect = null;
+		}
+		for (Latest frame : latest.values())
+			frame.payload.release();
+		latest.clear();
+		super.channelInactive(ctx);
+	}
+
+	private static final class Latest {
+		final ByteBuf payload;
+		final boolean text;
+
+		Latest(ByteBuf payload, boolean text) {
+			this.payload = payload;
+			this.text = text;
+		}
+	}
+}
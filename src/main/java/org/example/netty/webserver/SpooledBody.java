@@ -0,0 +1,164 @@
+package org.example.netty.webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * A {@link BodyConsumer} that keeps the body in memory up to a threshold and
+ * spools it to a temporary file beyond that. The chunks kept in memory are not
+ * copied. The body is discarded once {@link #complete} returns; move the
+ * {@link #file()} elsewhere to keep it.
+ * <p>
+ * Spooling writes to disk, so it only happens on routes with a
+ * {@link HandlerExecutor}. On other routes the chunks arrive on the event loop
+ * and a body beyond the threshold is refused with 413 Payload Too Large.
+ *
+ * <pre>
+ * httpd.stream(HttpMethod.POST, "/upload", (request, params) -&gt; new SpooledBody(1024 * 1024) {
+ * 	&#64;Override
+ * 	protected Object complete(HttpHeaders trailers) throws Exception {
+ * 		return "received " + length();
+ * 	}
+ * });
+ * </pre>
+ *
+ * @author gang
+ *
+ */
+public abstract class SpooledBody implements BodyConsumer {
+	private static final Logger logger = LoggerFactory.getLogger(SpooledBody.class);
+
+	private final long threshold;
+	private CompositeByteBuf memory;
+	private Path path;
+	private FileChannel file;
+	private long length;
+	private boolean memoryOnly;
+
+	/**
+	 * @param threshold bytes kept in memory before spooling to a file
+	 */
+	protected SpooledBody(long threshold) {
+		this.threshold = threshold;
+		this.memory = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Called with the whole body available.
+	 *
+	 * @return the response, as for {@link Handler#handle}
+	 */
+	protected abstract Object complete(HttpHeaders trailers) throws Exception;
+
+	@Override
+	public final void content(ByteBuf chunk) throws Exception {
+		final int readable = chunk.readableBytes();
+		if (readable == 0)
+			return;
+
+		if (file == null && length + readable > threshold) {
+			if (memoryOnly)
+				throw new TooLongFrameException("Request body over " + threshold
+						+ " bytes on a route without a HandlerExecutor to spool it");
+			path = Files.createTempFile("body", ".tmp");
+			file = FileChannel.open(path, StandardOpenOption.WRITE);
+			write(memory);
+			memory.release();
+			memory = null;
+		}
+
+		if (file != null)
+			write(chunk);
+		else
+			memory.addComponent(true, chunk.retain());
+		length += readable;
+	}
+
+	/**
+	 * Called when the chunks arrive on the event loop, where the body must
+	 * not be spooled.
+	 */
+	void memoryOnly() {
+		memoryOnly = true;
+	}
+
+	private void write(ByteBuf buf) throws IOException {
+		int index = buf.readerIndex();
+		int remaining = buf.readableBytes();
+		while (remaining > 0) {
+			int written = buf.getBytes(index, file, remaining);
+			index += written;
+			remaining -= written;
+		}
+	}
+
+	@Override
+	public final Object end(HttpHeaders trailers) throws Exception {
+		try {
+			if (file != null) {
+				file.close();
+				file = null;
+			}
+			return complete(trailers);
+		} finally {
+			discard();
+		}
+	}
+
+	@Override
+	public void abort(Throwable cause) {
+		discard();
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public boolean isInMemory() {
+		return path == null;
+	}
+
+	/**
+	 * @return the body, or null when it was spooled to a file
+	 */
+	public ByteBuf content() {
+		return memory;
+	}
+
+	/**
+	 * @return the spooled body, or null when it is kept in memory
+	 */
+	public File file() {
+		return path == null ? null : path.toFile();
+	}
+
+	private void discard() {
+		if (memory != null) {
+			memory.release();
+			memory = null;
+		}
+		try {
+			if (file != null) {
+				file.close();
+				file = null;
+			}
+			if (path != null)
+				Files.deleteIfExists(path);
+		} catch (IOException e) {
+			logger.warn("discard {}", path, e);
+		}
+	}
+}
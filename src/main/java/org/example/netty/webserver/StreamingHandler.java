@@ -0,0 +1,22 @@
+package org.example.netty.webserver;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * Handles requests whose body is not aggregated into a {@link io.netty.handler.codec.http.FullHttpRequest}.
+ * Register with {@link HttpServer#stream}; the body then has no size limit and
+ * is delivered to the returned {@link BodyConsumer} as it arrives.
+ * <p>
+ * When the route runs on a {@link HandlerExecutor}, the server stops reading
+ * from the socket while a chunk is being consumed, so a slow consumer slows the
+ * client down instead of buffering the body in memory.
+ *
+ * @see SpooledBody
+ */
+@FunctionalInterface
+public interface StreamingHandler {
+	/**
+	 * Called with the request line and headers, before any body chunk.
+	 */
+	BodyConsumer begin(HttpRequest request, PathParams params) throws Exception;
+}
@@ -0,0 +1,266 @@
+package org.example.netty.webserver;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Sits in front of the {@link io.netty.handler.codec.http.HttpObjectAggregator}
+ * and takes over requests for {@link StreamingHandler} routes, feeding their
+ * body chunks to a {@link BodyConsumer} as they arrive. Every other request is
+ * passed on to be aggregated as before.
+ * <p>
+ * On routes with a {@link HandlerExecutor} the chunks are consumed one at a
+ * time off the event loop, with reading suspended through the channel's
+ * {@link ReadSuspension} until the consumer has caught up.
+ *
+ * @author gang
+ *
+ */
+public class StreamingRequestHandler extends ChannelInboundHandlerAdapter {
+	private static final Logger logger = LoggerFactory.getLogger(StreamingRequestHandler.class);
+
+	private final RouteTable routeTable;
+
+	/** true while the messages of the current request are forwarded to the aggregator */
+	private boolean forwarding;
+	private StreamingRequest current;
+
+	public StreamingRequestHandler(RouteTable r) {
+		this.routeTable = r;
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof HttpRequest) {
+			if (!(msg instanceof FullHttpRequest) && beginStreaming(ctx, (HttpRequest) msg))
+				return;
+
+			forwarding = true;
+		}
+
+		if (forwarding || current == null) {
+			if (msg instanceof LastHttpContent)
+				forwarding = false;
+			ctx.fireChannelRead(msg);
+			return;
+		}
+
+		final StreamingRequest request = current;
+		if (msg instanceof LastHttpContent)
+			current = null;
+		request.offer((HttpContent) msg);
+	}
+
+	private boolean beginStreaming(ChannelHandlerContext ctx, HttpRequest request) {
+		final RouteSnapshot routes = this.routeTable.snapshot();
+		if (!routes.hasStreamingRoutes())
+			return false;
+
+		final Route route = routes.findRoute(request.method(), request.uri());
+		if (route == null || !route.isStreaming())
+			return false;
+
+		RouteMetricsHandler.matched(ctx.channel(), route);
+		if (HttpUtil.is100ContinueExpected(request)) {
+			HttpRequestHandler.send100Continue(ctx);
+		}
+
+		final int seq = ResponseSequencer.of(ctx.channel()).acquire();
+		current = new StreamingRequest(ctx, request, seq, route);
+		current.offer(request);
+		return true;
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (current != null) {
+			current.abort(new IllegalStateException("connection closed"));
+			current = null;
+		}
+		super.channelInactive(ctx);
+	}
+
+	/**
+	 * One streamed request. Messages are processed strictly in order, at most
+	 * one at a time; the queue and flags are only touched on the event loop.
+	 */
+	private static final class StreamingRequest {
+		private final ChannelHandlerContext ctx;
+		private final HttpRequest request;
+		private final int seq;
+		private final Route route;
+		private final HandlerExecutor executor;
+		private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+		private BodyConsumer consumer;
+		private boolean inFlight;
+		/** true while reading is suspended because of the chunk in flight */
+		private boolean paused;
+		/** set after a failure: the rest of the body is read and dropped */
+		private boolean failed;
+		/** set when the connection closed mid-body */
+		private Throwable abortCause;
+
+		StreamingRequest(ChannelHandlerContext ctx, HttpRequest request, int seq, Route route) {
+			this.ctx = ctx;
+			this.request = request;
+			this.seq = seq;
+			this.route = route;
+			this.executor = route.getOptions().getExecutor();
+		}
+
+		void offer(Object msg) {
+			if (failed) {
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+			queue.add(msg);
+			drain();
+		}
+
+		private void drain() {
+			while (!inFlight && !queue.isEmpty()) {
+				final Object msg = queue.poll();
+				if (failed) {
+					ReferenceCountUtil.release(msg);
+					continue;
+				}
+
+				if (executor == null) {
+					complete(msg, process(msg));
+					continue;
+				}
+
+				inFlight = true;
+				if (!paused) {
+					paused = true;
+					ReadSuspension.of(ctx.channel()).suspend();
+				}
+				try {
+					executor.execute(() -> {
+						final Object result = process(msg);
+						try {
+							ctx.executor().execute(() -> {
+								inFlight = false;
+								if (abortCause != null) {
+									ReferenceCountUtil.release(msg);
+									if (consumer != null && (result == null || result instanceof Failure))
+										consumer.abort(abortCause);
+									return;
+								}
+								complete(msg, result);
+								drain();
+							});
+						} catch (final RejectedExecutionException e) {
+							// event loop shut down, nothing else touches the request now
+							ReferenceCountUtil.release(msg);
+							if (consumer != null && (result == null || result instanceof Failure))
+								consumer.abort(e);
+						}
+					});
+				} catch (final RejectedExecutionException ex) {
+					inFlight = false;
+					ReferenceCountUtil.release(msg);
+					fail(ex, true);
+				}
+			}
+
+			if (!inFlight && paused) {
+				paused = false;
+				ReadSuspension.of(ctx.channel()).resume();
+			}
+		}
+
+		/**
+		 * Feeds one message to the consumer.
+		 *
+		 * @return the response once the body is complete, the failure, or null
+		 */
+		private Object process(Object msg) {
+			try {
+				if (msg instanceof HttpRequest) {
+					consumer = route.getStreamingHandler().begin(request, route.extractParams(request.uri()));
+					// nothing may block the event loop
+					if (executor == null && consumer instanceof SpooledBody)
+						((SpooledBody) consumer).memoryOnly();
+					return null;
+				}
+
+				final HttpContent content = (HttpContent) msg;
+				consumer.content(content.content());
+				if (msg instanceof LastHttpContent) {
+					final Object result = consumer.end(((LastHttpContent) msg).trailingHeaders());
+					return result == null ? "" : result;
+				}
+				return null;
+			} catch (final Throwable t) {
+				return new Failure(t);
+			}
+		}
+
+		/**
+		 * Runs on the event loop after {@link #process}.
+		 */
+		private void complete(Object msg, Object result) {
+			ReferenceCountUtil.release(msg);
+			if (result == null)
+				return;
+
+			if (result instanceof Failure) {
+				fail(((Failure) result).cause, false);
+				return;
+			}
+
+			ResponseSequencer.of(ctx.channel()).complete(seq,
+					() -> HttpRequestHandler.writeResultOrError(ctx, request, result, route.getOptions()));
+		}
+
+		private void fail(Throwable cause, boolean rejected) {
+			failed = true;
+			if (consumer != null)
+				consumer.abort(cause);
+
+			final ResponseSequencer sequencer = ResponseSequencer.of(ctx.channel());
+			if (rejected) {
+				sequencer.complete(seq, () -> HttpRequestHandler.sendServiceUnavailable(ctx, request));
+			} else if (cause instanceof TooLongFrameException) {
+				logger.debug("{}", cause.getMessage());
+				sequencer.complete(seq, () -> HttpRequestHandler.sendPayloadTooLarge(ctx, request));
+			} else {
+				logger.warn("", cause);
+				sequencer.complete(seq, () -> HttpRequestHandler.sendInternalServerError(ctx, request));
+			}
+		}
+
+		void abort(Throwable cause) {
+			failed = true;
+			abortCause = cause;
+			for (Object msg; (msg = queue.poll()) != null;)
+				ReferenceCountUtil.release(msg);
+			// otherwise the consumer is aborted when the chunk in flight returns
+			if (consumer != null && !inFlight)
+				consumer.abort(cause);
+		}
+	}
+
+	private static final class Failure {
+		final Throwable cause;
+
+		Failure(Throwable cause) {
+			this.cause = cause;
+		}
+	}
+}
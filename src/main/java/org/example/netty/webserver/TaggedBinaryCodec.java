@@ -0,0 +1,102 @@
+package org.example.netty.webserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * A compact binary {@link WebSocketCodec}: one byte identifying the message
+ * type, followed by the fields as the type's reader and writer lay them out.
+ * The WebSocket frame delimits the message, so no length prefix is needed.
+ *
+ * <pre>
+ * codec.register(1, Sample.class,
+ *         in -&gt; new Sample(in.readLong(), in.readDouble()),
+ *         (sample, out) -&gt; out.writeLong(sample.time).writeDouble(sample.value));
+ * </pre>
+ *
+ * Register all types before the server starts.
+ *
+ * @author gang
+ *
+ */
+public class TaggedBinaryCodec implements WebSocketCodec {
+	@FunctionalInterface
+	public interface Reader<T> {
+		T read(ByteBuf in) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface Writer<T> {
+		void write(T message, ByteBuf out) throws Exception;
+	}
+
+	private final Type<?>[] byTag = new Type<?>[256];
+	private final Map<Class<?>, Type<?>> byClass = new HashMap<Class<?>, Type<?>>();
+
+	/**
+	 * @param tag 0-255, the first byte of messages of this type
+	 * @throws IllegalArgumentException if the tag or type is taken
+	 */
+	public <T> TaggedBinaryCodec register(int tag, Class<T> type, Reader<? extends T> reader,
+			Writer<? super T> writer) {
+		if (tag < 0 || tag > 255)
+			throw new IllegalArgumentException("Tag out of range: " + tag);
+		if (byTag[tag] != null || byClass.containsKey(type))
+			throw new IllegalArgumentException("Tag " + tag + " or " + type.getName() + " is already registered");
+
+		final Type<T> t = new Type<T>(tag, type, reader, writer);
+		byTag[tag] = t;
+		byClass.put(type, t);
+		return this;
+	}
+
+	@Override
+	public Object decode(ByteBuf content) throws Exception {
+		if (!content.isReadable())
+			throw new CorruptedFrameException("empty message");
+		final int tag = content.readUnsignedByte();
+		final Type<?> type = byTag[tag];
+		if (type == null)
+			throw new CorruptedFrameException("unknown message type " + tag);
+		return type.reader.read(content);
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator alloc, Object message) throws Exception {
+		final Type<?> type = byClass.get(message.getClass());
+		if (type == null)
+			throw new IllegalArgumentException("Unregistered message type " + message.getClass().getName());
+
+		final ByteBuf out = alloc.buffer();
+		try {
+			out.writeByte(type.tag);
+			type.write(message, out);
+			return out;
+		} catch (Exception | Error ex) {
+			out.release();
+			throw ex;
+		}
+	}
+
+	private static final class Type<T> {
+		final int tag;
+		final Class<T> type;
+		final Reader<? extends T> reader;
+		final Writer<? super T> writer;
+
+		Type(int tag, Class<T> type, Reader<? extends T> reader, Writer<? super T> writer) {
+			this.tag = tag;
+			this.type = type;
+			this.reader = reader;
+			this.writer = writer;
+		}
+
+		void write(Object message, ByteBuf out) throws Exception {
+			writer.write(type.cast(message), out);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.example.netty.webserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+/**
+ * The handler of the {@link WebServer}'s own endpoint. The client manages its
+ * {@link WebSocketHub} subscriptions with {@code SUBSCRIBE <topic>} and
+ * {@code UNSUBSCRIBE <topic>}; other text is logged. Binary messages go to
+ * the server's {@link WebSocketMessages}.
+ *
+ * @author gang
+ *
+ */
+class TopicWebSocketHandler implements WebSocketHandler {
+	private static final Logger logger = LoggerFactory.getLogger(TopicWebSocketHandler.class);
+
+	private static final String SUBSCRIBE = "SUBSCRIBE ";
+	private static final String UNSUBSCRIBE = "UNSUBSCRIBE ";
+
+	private final WebSocketHub hub;
+	private final WebSocketMessages messages;
+
+	TopicWebSocketHandler(WebSocketHub hub, WebSocketMessages messages) {
+		this.hub = hub;
+		this.messages = messages;
+	}
+
+	@Override
+	public void onOpen(Channel channel, PathParams params) {
+	}
+
+	@Override
+	public void onText(Channel channel, String text) {
+		if (text.startsWith(SUBSCRIBE)) {
+			hub.subscribe(channel, text.substring(SUBSCRIBE.length()).trim());
+		} else if (text.startsWith(UNSUBSCRIBE)) {
+			hub.unsubscribe(channel, text.substring(UNSUBSCRIBE.length()).trim());
+		} else {
+			logger.debug(text);
+		}
+	}
+
+	@Override
+	public void onBinary(Channel channel, ByteBuf content) throws Exception {
+		messages.onBinary(channel, content);
+	}
+}
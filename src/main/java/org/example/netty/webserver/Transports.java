@@ -0,0 +1,142 @@
+package org.example.netty.webserver;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ThreadFactory;
+
+import org.example.netty.webserver.HttpServerConfig.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Creates the event loops and server channels of a {@link Transport}. The
+ * native transports are only touched after their availability check, so a
+ * missing or incompatible native library degrades to the next transport
+ * instead of failing.
+ * <p>
+ * io_uring lives in Netty's incubator, which needs a newer Netty than this
+ * project builds against, so it is loaded reflectively when it is on the class
+ * path (see the io_uring profile in the pom).
+ *
+ * @author gang
+ *
+ */
+final class Transports {
+	private static final Logger logger = LoggerFactory.getLogger(Transports.class);
+
+	private static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+
+	private static final Constructor<? extends EventLoopGroup> IO_URING_GROUP;
+	private static final Class<? extends ServerChannel> IO_URING_SERVER_CHANNEL;
+	private static final Throwable IO_URING_UNAVAILABILITY_CAUSE;
+	private static final ChannelOption<Boolean> IO_URING_SO_REUSEPORT;
+
+	static {
+		Constructor<? extends EventLoopGroup> group = null;
+		Class<? extends ServerChannel> serverChannel = null;
+		Throwable cause = null;
+		ChannelOption<Boolean> reusePort = null;
+		try {
+			Class<?> ioUring = Class.forName(IO_URING_PACKAGE + "IOUring");
+			if ((Boolean) ioUring.getMethod("isAvailable").invoke(null)) {
+				group = Class.forName(IO_URING_PACKAGE + "IOUringEventLoopGroup").asSubclass(EventLoopGroup.class)
+						.getConstructor(int.class, ThreadFactory.class);
+				serverChannel = Class.forName(IO_URING_PACKAGE + "IOUringServerSocketChannel")
+						.asSubclass(ServerChannel.class);
+				@SuppressWarnings("unchecked")
+				ChannelOption<Boolean> option = (ChannelOption<Boolean>) Class
+						.forName(IO_URING_PACKAGE + "IOUringChannelOption").getField("SO_REUSEPORT").get(null);
+				reusePort = option;
+			} else {
+				cause = (Throwable) ioUring.getMethod("unavailabilityCause").invoke(null);
+			}
+		} catch (Throwable t) {
+			cause = t;
+		}
+		IO_URING_GROUP = serverChannel != null ? group : null;
+		IO_URING_SERVER_CHANNEL = serverChannel;
+		IO_URING_UNAVAILABILITY_CAUSE = cause;
+		IO_URING_SO_REUSEPORT = reusePort;
+	}
+
+	private Transports() {
+	}
+
+	static boolean isIoUringAvailable() {
+		return IO_URING_SERVER_CHANNEL != null;
+	}
+
+	/**
+	 * @return the transport that will actually be used for the requested one
+	 */
+	static Transport resolve(Transport requested) {
+		switch (requested) {
+		case IO_URING:
+			if (isIoUringAvailable())
+				return Transport.IO_URING;
+			logger.warn("io_uring not available, falling back", IO_URING_UNAVAILABILITY_CAUSE);
+			return resolve(Transport.EPOLL);
+		case EPOLL:
+			if (Epoll.isAvailable())
+				return Transport.EPOLL;
+			logger.warn("epoll not available, falling back to NIO", Epoll.unavailabilityCause());
+			return Transport.NIO;
+		case NIO:
+			return Transport.NIO;
+		default:
+			return Epoll.isAvailable() ? Transport.EPOLL : Transport.NIO;
+		}
+	}
+
+	static EventLoopGroup newGroup(Transport transport, int threads, String name) {
+		final ThreadFactory threadFactory = new DefaultThreadFactory(name);
+		switch (transport) {
+		case IO_URING:
+			try {
+				return IO_URING_GROUP.newInstance(threads, threadFactory);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Cannot create an io_uring event loop group", e);
+			}
+		case EPOLL:
+			return new EpollEventLoopGroup(threads, threadFactory);
+		default:
+			return new NioEventLoopGroup(threads, threadFactory);
+		}
+	}
+
+	/**
+	 * @return the SO_REUSEPORT option of the transport, or null when it has
+	 *         none
+	 */
+	static ChannelOption<Boolean> reusePortOption(Transport transport) {
+		switch (transport) {
+		case IO_URING:
+			return IO_URING_SO_REUSEPORT;
+		case EPOLL:
+			return EpollChannelOption.SO_REUSEPORT;
+		default:
+			return null;
+		}
+	}
+
+	static Class<? extends ServerChannel> serverChannelClass(Transport transport) {
+		switch (transport) {
+		case IO_URING:
+			return IO_URING_SERVER_CHANNEL;
+		case EPOLL:
+			return EpollServerSocketChannel.class;
+		default:
+			return NioServerSocketChannel.class;
+		}
+	}
+}
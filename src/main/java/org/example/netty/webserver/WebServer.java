@@ -3,23 +3,42 @@ package org.example.netty.webserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.netty.channel.Channel;
-import io.netty.channel.ChannelInitializer;
-
+/**
+ * An {@link HttpServer} with a {@link WebSocketHub} and a WebSocket endpoint
+ * at {@code wsUri} whose clients subscribe to its topics. Further endpoints
+ * are added with {@link #ws(String, WebSocketHandler)}.
+ */
 public class WebServer extends HttpServer {
 	private static final Logger logger = LoggerFactory.getLogger(WebServer.class);
 
-	private String wsUri;
+	private final WebSocketHub hub;
+
+	private final WebSocketMessages messages = new WebSocketMessages();
 	
 	public WebServer(String wsUri) {
-		super();
-		
-		this.wsUri = wsUri;
+		this(wsUri, new HttpServerConfig());
 	}
-	
-	@Override
-	protected ChannelInitializer<Channel> createChannelInitializer(RouteTable r) {
-		return new WebServerInitializer(r, wsUri);
+
+	public WebServer(String wsUri, HttpServerConfig config) {
+		super(config);
+
+		this.hub = new WebSocketHub(getMetrics().getAllocator());
+		ws(wsUri, new TopicWebSocketHandler(hub, messages));
+	}
+
+	/**
+	 * @return the topics WebSocket clients subscribe to and the application
+	 *         publishes on
+	 */
+	public WebSocketHub getHub() {
+		return hub;
+	}
+
+	/**
+	 * @return the codec and typed handlers of binary WebSocket messages
+	 */
+	public WebSocketMessages getMessages() {
+		return messages;
 	}
 	
 	
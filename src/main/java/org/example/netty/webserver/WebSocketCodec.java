@@ -0,0 +1,29 @@
+package org.example.netty.webserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Turns binary WebSocket messages into objects and back, straight from and
+ * into buffers, so payloads never pass through a {@link String}. Used by
+ * {@link WebSocketMessages} to route incoming messages to typed handlers and
+ * by {@link WebSocketHub#publish(String, Object, WebSocketCodec)}.
+ *
+ * @see TaggedBinaryCodec
+ * @author gang
+ *
+ */
+public interface WebSocketCodec {
+	/**
+	 * @param content the whole message; released by the server when the
+	 *            message has been handled, so a decoded object must not keep
+	 *            slices of it without retaining them
+	 * @return the message, or null to ignore it
+	 */
+	Object decode(ByteBuf content) throws Exception;
+
+	/**
+	 * @return a new buffer from the allocator holding the encoded message
+	 */
+	ByteBuf encode(ByteBufAllocator alloc, Object message) throws Exception;
+}
@@ -0,0 +1,99 @@
+package org.example.netty.webserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+
+/**
+ * Passes the messages of an upgraded connection to the
+ * {@link WebSocketHandler} of the route it was upgraded on. Installed per
+ * connection by the {@link HttpRequestHandler} when an upgrade request matches
+ * a WebSocket route.
+ * <p>
+ * An invalid binary payload closes the connection with status 1007; any other
+ * failure of the handler is only logged.
+ *
+ * @author gang
+ *
+ */
+class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketFrameHandler.class);
+
+	private static final int INVALID_PAYLOAD = 1007;
+	private static final int INTERNAL_ERROR = 1011;
+
+	private final WebSocketHandler handler;
+	private final PathParams params;
+	private boolean open;
+
+	WebSocketFrameHandler(WebSocketHandler handler, PathParams params) {
+		this.handler = handler;
+		this.params = params;
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt != WebSocketServerProtocolHandler.ServerHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+			super.userEventTriggered(ctx, evt);
+			return;
+		}
+
+		final ChannelPipeline pipeline = ctx.pipeline();
+		if (pipeline.get(HttpRequestHandler.class) != null)
+			pipeline.remove(HttpRequestHandler.class);
+		if (pipeline.get(StreamingRequestHandler.class) != null)
+			pipeline.remove(StreamingRequestHandler.class);
+
+		open = true;
+		try {
+			handler.onOpen(ctx.channel(), params);
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			close(ctx, INTERNAL_ERROR, "internal error");
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) throws Exception {
+		try {
+			if (msg instanceof TextWebSocketFrame) {
+				handler.onText(ctx.channel(), ((TextWebSocketFrame) msg).text());
+			} else if (msg instanceof BinaryWebSocketFrame) {
+				handler.onBinary(ctx.channel(), msg.content());
+			}
+		} catch (CorruptedFrameException ex) {
+			logger.debug("Closing {} after an invalid message", ctx.channel(), ex);
+			close(ctx, INVALID_PAYLOAD, "invalid message");
+		} catch (Exception ex) {
+			logger.warn("", ex);
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		if (open) {
+			open = false;
+			try {
+				handler.onClose(ctx.channel());
+			} catch (RuntimeException ex) {
+				logger.warn("", ex);
+			}
+		}
+		super.channelInactive(ctx);
+	}
+
+	private static void close(ChannelHandlerContext ctx, int status, String reason) {
+		ctx.writeAndFlush(new CloseWebSocketFrame(status, reason)).addListener(ChannelFutureListener.CLOSE);
+	}
+}
@@ -0,0 +1,46 @@
+package org.example.netty.webserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+/**
+ * Handles the WebSocket connections of one route, registered with
+ * {@link HttpServer#ws(String, WebSocketHandler)}:
+ *
+ * <pre>
+ * server.ws("/feed/{topic}", (channel, params) -&gt; hub.subscribe(channel, params.get("topic")));
+ * </pre>
+ *
+ * All methods are called on the channel's event loop. Messages sent as
+ * continuation frames arrive reassembled.
+ *
+ * @author gang
+ *
+ */
+@FunctionalInterface
+public interface WebSocketHandler {
+
+	/**
+	 * Called once the handshake is complete.
+	 *
+	 * @param params the path parameters of the upgrade request
+	 */
+	void onOpen(Channel channel, PathParams params) throws Exception;
+
+	default void onText(Channel channel, String text) throws Exception {
+	}
+
+	/**
+	 * @param content the payload, only valid during this call
+	 * @throws io.netty.handler.codec.CorruptedFrameException when the payload
+	 *             is invalid, which closes the connection with status 1007
+	 */
+	default void onBinary(Channel channel, ByteBuf content) throws Exception {
+	}
+
+	/**
+	 * Called when a connection that was opened is closed.
+	 */
+	default void onClose(Channel channel) {
+	}
+}
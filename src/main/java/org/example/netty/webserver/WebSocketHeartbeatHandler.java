@@ -0,0 +1,42 @@
+package org.example.netty.webserver;
+
+import org.example.netty.webserver.ConnectionMetrics.CloseReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+/**
+ * Heartbeats of an upgraded connection, driven by a reader-idle
+ * {@link IdleStateHandler}. The first time the peer has been silent for an
+ * interval it is pinged; if the next interval passes without anything from
+ * it, not even the pong, the peer is considered dead and the connection is
+ * closed.
+ *
+ * @author gang
+ *
+ */
+class WebSocketHeartbeatHandler extends ChannelInboundHandlerAdapter {
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketHeartbeatHandler.class);
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (!(evt instanceof IdleStateEvent)) {
+			super.userEventTriggered(ctx, evt);
+			return;
+		}
+		// any frame from the peer starts a new first event
+		if (((IdleStateEvent) evt).isFirst()) {
+			ctx.writeAndFlush(new PingWebSocketFrame());
+			return;
+		}
+
+		logger.debug("Closing {}, no pong", ctx.channel());
+		ConnectionMetrics.closing(ctx.channel(), CloseReason.HEARTBEAT);
+		ctx.close();
+	}
+}
@@ -0,0 +1,278 @@
+package org.example.netty.webserver;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.example.netty.webserver.HttpServerConfig.SlowConsumerPolicy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.AttributeKey;
+
+/**
+ * Topic based publish/subscribe for WebSocket connections.
+ * <p>
+ * A message is encoded once into a buffer that every subscriber's frame
+ * shares through a retained duplicate. Subscribers are grouped by event loop,
+ * and publishing hands each loop a single task that writes to all its
+ * subscribers, instead of one task per channel. Flushes are batched per loop:
+ * the frames of every message published until the loop gets to the flush go
+ * out with one flush per channel.
+ * <p>
+ * Frames for a connection that is not writable are handled by its
+ * {@link SlowConsumerPolicy} instead of being buffered.
+ * <p>
+ * With permessage-deflate negotiated every connection still compresses its
+ * own copy; turn WebSocket compression off in {@link HttpServerConfig} for
+ * feeds broadcast to many clients.
+ * <p>
+ * Channels leave all their topics when they close.
+ *
+ * @author gang
+ *
+ */
+public class WebSocketHub {
+	private static final AttributeKey<Set<String>> TOPICS = AttributeKey.valueOf(WebSocketHub.class, "topics");
+
+	private final ByteBufAllocator allocator;
+	private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<String, Topic>();
+	private final ConcurrentHashMap<EventLoop, Flusher> flushers = new ConcurrentHashMap<EventLoop, Flusher>();
+
+	private final ChannelFutureListener unsubscribeAll = future -> {
+		final Set<String> names = future.channel().attr(TOPICS).get();
+		for (String name : names)
+			unsubscribe(future.channel(), name);
+	};
+
+	/**
+	 * @param allocator allocates the encoded messages
+	 */
+	public WebSocketHub(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	/**
+	 * Adds a WebSocket channel to a topic.
+	 *
+	 * @return false if it already was subscribed
+	 */
+	public boolean subscribe(Channel channel, String topic) {
+		Set<String> names = channel.attr(TOPICS).get();
+		if (names == null) {
+			final Set<String> created = ConcurrentHashMap.newKeySet();
+			names = channel.attr(TOPICS).setIfAbsent(created);
+			if (names == null) {
+				names = created;
+				channel.closeFuture().addListener(unsubscribeAll);
+			}
+		}
+		if (!names.add(topic))
+			return false;
+
+		topics.compute(topic, (k, t) -> {
+			if (t == null)
+				t = new Topic(topic);
+			t.add(channel);
+			return t;
+		});
+		// closed while subscribing, the close listener may have missed it
+		if (!channel.isOpen())
+			unsubscribe(channel, topic);
+		return true;
+	}
+
+	/**
+	 * @return false if the channel was not subscribed
+	 */
+	public boolean unsubscribe(Channel channel, String topic) {
+		final Set<String> names = channel.attr(TOPICS).get();
+		if (names == null || !names.remove(topic))
+			return false;
+		topics.computeIfPresent(topic, (k, t) -> t.remove(channel) && t.isEmpty() ? null : t);
+		return true;
+	}
+
+	/**
+	 * @return the number of channels subscribed to a topic
+	 */
+	public int subscribers(String topic) {
+		final Topic t = topics.get(topic);
+		return t == null ? 0 : t.size;
+	}
+
+	/**
+	 * Sends a text message to every subscriber of a topic. The text is
+	 * encoded to UTF-8 once.
+	 *
+	 * @return the number of event loops the message was handed to
+	 */
+	public int publish(String topic, CharSequence text) {
+		final Topic t = topics.get(topic);
+		if (t == null)
+			return 0;
+		return t.publish(ByteBufUtil.writeUtf8(allocator, text), true);
+	}
+
+	/**
+	 * Sends a binary message to every subscriber of a topic.
+	 *
+	 * @param payload the message, released by the hub
+	 * @return the number of event loops the message was handed to
+	 */
+	public int publish(String topic, ByteBuf payload) {
+		final Topic t = topics.get(topic);
+		if (t == null) {
+			payload.release();
+			return 0;
+		}
+		return t.publish(payload, false);
+	}
+
+	/**
+	 * Changes what a connection gets while it cannot keep up, see
+	 * {@link HttpServerConfig#setSlowConsumerPolicy}.
+	 */
+	public void setSlowConsumerPolicy(Channel channel, SlowConsumerPolicy policy) {
+		final SlowConsumerHandler slow = channel.attr(SlowConsumerHandler.KEY).get();
+		if (slow != null)
+			slow.setPolicy(policy);
+	}
+
+	/**
+	 * Sends a message encoded once by the codec as a binary frame to every
+	 * subscriber of a topic.
+	 *
+	 * @return the number of event loops the message was handed to
+	 */
+	public int publish(String topic, Object message, WebSocketCodec codec) throws Exception {
+		if (!topics.containsKey(topic))
+			return 0;
+		return publish(topic, codec.encode(allocator, message));
+	}
+
+	private Flusher flusher(EventLoop loop) {
+		final Flusher flusher = flushers.get(loop);
+		return flusher != null ? flusher : flushers.computeIfAbsent(loop, Flusher::new);
+	}
+
+	/**
+	 * The subscribers of one topic by event loop. Changed only inside
+	 * {@link ConcurrentHashMap#compute}, read by publishers at any time.
+	 */
+	private final class Topic {
+		private final String name;
+		private final Map<EventLoop, Set<Channel>> loops = new ConcurrentHashMap<EventLoop, Set<Channel>>();
+		private volatile int size;
+
+		Topic(String name) {
+			this.name = name;
+		}
+
+		void add(Channel channel) {
+			Set<Channel> channels = loops.get(channel.eventLoop());
+			if (channels == null) {
+				channels = ConcurrentHashMap.newKeySet();
+				loops.put(channel.eventLoop(), channels);
+			}
+			if (channels.add(channel))
+				size++;
+		}
+
+		boolean remove(Channel channel) {
+			final Set<Channel> channels = loops.get(channel.eventLoop());
+			if (channels == null || !channels.remove(channel))
+				return false;
+			if (channels.isEmpty())
+				loops.remove(channel.eventLoop());
+			size--;
+			return true;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int publish(ByteBuf payload, boolean text) {
+			int handed = 0;
+			try {
+				for (Map.Entry<EventLoop, Set<Channel>> entry : loops.entrySet()) {
+					final Set<Channel> channels = entry.getValue();
+					final Flusher flusher = flusher(entry.getKey());
+					payload.retain();
+					try {
+						entry.getKey().execute(() -> flusher.write(name, channels, payload, text));
+						handed++;
+					} catch (RejectedExecutionException ex) {
+						// the loop is shutting down along with its channels
+						payload.release();
+					}
+				}
+			} finally {
+				payload.release();
+			}
+			return handed;
+		}
+	}
+
+	/**
+	 * Writes on one event loop and flushes what was written once the tasks
+	 * queued before the flush have run. Only touched on its loop.
+	 */
+	private static final class Flusher {
+		private final EventLoop loop;
+		private final Set<Channel> unflushed = new HashSet<Channel>();
+		private boolean scheduled;
+
+		Flusher(EventLoop loop) {
+			this.loop = loop;
+		}
+
+		void write(String topic, Set<Channel> channels, ByteBuf payload, boolean text) {
+			try {
+				for (Channel channel : channels) {
+					if (!channel.isActive())
+						continue;
+					if (!channel.isWritable()) {
+						final SlowConsumerHandler slow = channel.attr(SlowConsumerHandler.KEY).get();
+						if (slow != null) {
+							slow.offer(topic, payload, text);
+							continue;
+						}
+					}
+					final ByteBuf content = payload.retainedDuplicate();
+					channel.write(text ? new TextWebSocketFrame(content) : new BinaryWebSocketFrame(content),
+							channel.voidPromise());
+					unflushed.add(channel);
+				}
+			} finally {
+				payload.release();
+			}
+
+			if (!scheduled && !unflushed.isEmpty()) {
+				// runs after the writes already queued on this loop
+				scheduled = true;
+				try {
+					loop.execute(this::flush);
+				} catch (RejectedExecutionException ex) {
+					flush();
+				}
+			}
+		}
+
+		private void flush() {
+			scheduled = false;
+			for (Channel channel : unflushed)
+				channel.flush();
+			unflushed.clear();
+		}
+	}
+}
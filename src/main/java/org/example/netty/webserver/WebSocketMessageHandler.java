@@ -0,0 +1,16 @@
+package org.example.netty.webserver;
+
+import io.netty.channel.Channel;
+
+/**
+ * Handles one type of decoded WebSocket message, see
+ * {@link WebSocketMessages#on}. Called on the connection's event loop, so it
+ * must not block.
+ *
+ * @author gang
+ *
+ */
+@FunctionalInterface
+public interface WebSocketMessageHandler<T> {
+	void handle(Channel channel, T message) throws Exception;
+}
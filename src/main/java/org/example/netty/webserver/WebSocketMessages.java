@@ -0,0 +1,111 @@
+package org.example.netty.webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * Routes binary WebSocket messages, decoded by a {@link WebSocketCodec}, to
+ * the handler registered for their class:
+ *
+ * <pre>
+ * server.getMessages()
+ *         .codec(new TaggedBinaryCodec().register(1, Sample.class, Sample::read, Sample::write))
+ *         .on(Sample.class, (channel, sample) -&gt; store.add(sample));
+ * </pre>
+ *
+ * Without a codec binary frames are ignored. Messages of a single endpoint go
+ * to a {@code WebSocketMessages} of their own registered as its handler,
+ * {@code server.ws("/telemetry", messages)}.
+ *
+ * @author gang
+ *
+ */
+public class WebSocketMessages implements WebSocketHandler {
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketMessages.class);
+
+	private volatile WebSocketCodec codec;
+	private final Map<Class<?>, WebSocketMessageHandler<?>> handlers =
+			new ConcurrentHashMap<Class<?>, WebSocketMessageHandler<?>>();
+
+	public WebSocketMessages codec(WebSocketCodec codec) {
+		this.codec = codec;
+		return this;
+	}
+
+	public WebSocketCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Registers the handler of messages of exactly this class, replacing any
+	 * previous one.
+	 */
+	public <T> WebSocketMessages on(Class<T> type, WebSocketMessageHandler<? super T> handler) {
+		handlers.put(type, handler);
+		return this;
+	}
+
+	@Override
+	public void onOpen(Channel channel, PathParams params) {
+	}
+
+	/**
+	 * Decodes a binary message and passes it to the handler of its class.
+	 *
+	 * @throws CorruptedFrameException when the codec cannot decode it
+	 */
+	@Override
+	public void onBinary(Channel channel, ByteBuf content) throws Exception {
+		final WebSocketCodec codec = this.codec;
+		if (codec == null) {
+			logger.debug("Ignoring a binary frame of {} bytes", content.readableBytes());
+			return;
+		}
+
+		final Object message;
+		try {
+			message = codec.decode(content);
+		} catch (CorruptedFrameException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new CorruptedFrameException(ex);
+		}
+		if (message != null)
+			dispatch(channel, message);
+	}
+
+	/**
+	 * Encodes a message and writes it to the channel as a binary frame.
+	 *
+	 * @throws IllegalStateException when no codec has been set
+	 */
+	public ChannelFuture send(Channel channel, Object message) throws Exception {
+		final WebSocketCodec codec = this.codec;
+		if (codec == null)
+			throw new IllegalStateException("No codec, call codec(...) before sending messages");
+		return channel.writeAndFlush(new BinaryWebSocketFrame(codec.encode(channel.alloc(), message)));
+	}
+
+	/**
+	 * Passes a decoded message to the handler of its class.
+	 */
+	@SuppressWarnings("unchecked")
+	void dispatch(Channel channel, Object message) throws Exception {
+		final WebSocketMessageHandler<Object> handler = (WebSocketMessageHandler<Object>) handlers
+				.get(message.getClass());
+		if (handler == null) {
+			logger.debug("No handler for {} from {}", message.getClass().getName(), channel);
+			return;
+		}
+		handler.handle(channel, message);
+	}
+}
@@ -0,0 +1,68 @@
+package org.example.netty.webserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Backpressure counters of a server's WebSocket connections: how many cannot
+ * take more frames right now, and what happened to the frames published to
+ * them meanwhile. All counters are {@link LongAdder}s, so event loops never
+ * contend on them.
+ *
+ * @author gang
+ *
+ */
+public class WebSocketMetrics {
+	private final LongAdder unwritable = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder disconnected = new LongAdder();
+
+	void unwritable() {
+		unwritable.increment();
+	}
+
+	void writable() {
+		unwritable.decrement();
+	}
+
+	void dropped() {
+		dropped.increment();
+	}
+
+	void coalesced() {
+		coalesced.increment();
+	}
+
+	void disconnected() {
+		disconnected.increment();
+	}
+
+	/**
+	 * @return connections whose outbound buffer is above the high water mark
+	 */
+	public long getUnwritable() {
+		return unwritable.sum();
+	}
+
+	/**
+	 * @return frames not sent to a slow consumer, including those replaced
+	 *         by a newer one
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return frames replaced by a newer one of the same topic
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return slow consumers closed after the grace period
+	 */
+	public long getDisconnected() {
+		return disconnected.sum();
+	}
+}
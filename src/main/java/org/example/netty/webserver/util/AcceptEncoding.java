@@ -0,0 +1,64 @@
+package org.example.netty.webserver.util;
+
+/**
+ * Checks a content coding against an {@code Accept-Encoding} header (RFC 7231
+ * section 5.3.4): the header is split into its codings, names are compared
+ * whole and case-insensitively, and a coding with {@code q=0} is refused, even
+ * when {@code *} would accept it.
+ *
+ * @author gang
+ *
+ */
+public final class AcceptEncoding {
+	private AcceptEncoding() {
+	}
+
+	/**
+	 * @param acceptEncoding the header value, may be null
+	 * @param coding a content coding, e.g. {@code gzip}
+	 * @return whether the client accepts the coding
+	 */
+	public static boolean accepts(CharSequence acceptEncoding, CharSequence coding) {
+		if (acceptEncoding == null)
+			return false;
+
+		final String value = acceptEncoding.toString();
+		final String name = coding.toString();
+		boolean wildcard = false;
+		int start = 0;
+		while (start < value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0)
+				end = value.length();
+			final String token = value.substring(start, end);
+			start = end + 1;
+
+			final int semicolon = token.indexOf(';');
+			final String tokenName = (semicolon < 0 ? token : token.substring(0, semicolon)).trim();
+			final boolean acceptable = semicolon < 0 || quality(token.substring(semicolon + 1)) > 0;
+			if (tokenName.equalsIgnoreCase(name))
+				return acceptable;
+			if ("*".equals(tokenName))
+				wildcard = acceptable;
+		}
+		return wildcard;
+	}
+
+	/**
+	 * @param params the parameters after the coding, e.g. {@code q=0.5}
+	 * @return the q-value, 1 when absent, 0 when malformed
+	 */
+	private static float quality(String params) {
+		for (String param : params.split(";")) {
+			final String p = param.trim();
+			if (p.length() > 1 && (p.charAt(0) == 'q' || p.charAt(0) == 'Q') && p.indexOf('=') > 0) {
+				try {
+					return Float.parseFloat(p.substring(p.indexOf('=') + 1).trim());
+				} catch (NumberFormatException ex) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+}
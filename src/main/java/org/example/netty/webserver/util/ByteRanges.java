@@ -0,0 +1,123 @@
+package org.example.netty.webserver.util;
+
+import java.util.Arrays;
+
+/**
+ * The byte ranges of a {@code Range} request header (RFC 7233), resolved
+ * against the length of the representation.
+ *
+ * @author gang
+ *
+ */
+public final class ByteRanges {
+	/** more ranges than this in one request are ignored and the whole body is sent */
+	public static final int MAX_RANGES = 16;
+
+	/** returned when the header is satisfiable by none of its ranges */
+	public static final ByteRanges UNSATISFIABLE = new ByteRanges(new long[0], 0);
+
+	private final long[] bounds;
+	private final int count;
+
+	private ByteRanges(long[] bounds, int count) {
+		this.bounds = bounds;
+		this.count = count;
+	}
+
+	/**
+	 * @param header the Range header, may be null
+	 * @param length the length of the whole body
+	 * @return the ranges, {@link #UNSATISFIABLE}, or null when the header is
+	 *         absent, malformed or not worth honouring, so the whole body is
+	 *         sent
+	 */
+	public static ByteRanges parse(CharSequence header, long length) {
+		if (header == null)
+			return null;
+		final String value = header.toString().trim();
+		if (!value.startsWith("bytes="))
+			return null;
+
+		long[] bounds = new long[4];
+		int count = 0;
+		int start = 6;
+		while (start <= value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0)
+				end = value.length();
+			final String spec = value.substring(start, end).trim();
+			start = end + 1;
+			if (spec.isEmpty())
+				continue;
+
+			final int dash = spec.indexOf('-');
+			if (dash < 0)
+				return null;
+
+			long first;
+			long last;
+			try {
+				if (dash == 0) {
+					// suffix range: the last n bytes
+					final long n = Long.parseLong(spec.substring(1));
+					if (n <= 0)
+						continue;
+					first = Math.max(0, length - n);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+					if (first < 0 || last < first)
+						return null;
+					last = Math.min(last, length - 1);
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+
+			if (first >= length)
+				continue;
+			if (count == MAX_RANGES)
+				return null;
+			if (2 * count == bounds.length)
+				bounds = Arrays.copyOf(bounds, bounds.length * 2);
+			bounds[2 * count] = first;
+			bounds[2 * count + 1] = last;
+			count++;
+		}
+		return count == 0 ? UNSATISFIABLE : new ByteRanges(bounds, count);
+	}
+
+	public boolean isSatisfiable() {
+		return count > 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the offset of the first byte of range {@code i}
+	 */
+	public long first(int i) {
+		return bounds[2 * i];
+	}
+
+	/**
+	 * @return the offset of the last byte of range {@code i}, inclusive
+	 */
+	public long last(int i) {
+		return bounds[2 * i + 1];
+	}
+
+	public long length(int i) {
+		return last(i) - first(i) + 1;
+	}
+
+	/**
+	 * @return the Content-Range value of range {@code i}
+	 */
+	public String contentRange(int i, long totalLength) {
+		return "bytes " + first(i) + "-" + last(i) + "/" + totalLength;
+	}
+}
@@ -0,0 +1,132 @@
+package org.example.netty.webserver.util;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+import io.netty.util.ByteProcessor;
+
+/**
+ * Strong entity tags and the {@code If-None-Match} / {@code If-Range} checks
+ * against them (RFC 7232).
+ *
+ * @author gang
+ *
+ */
+public final class ETags {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * content codings whose name a variant's tag carries, whether compressed on
+	 * the fly, precompressed or cached
+	 */
+	private static final String[] CODINGS = { "gzip", "deflate", "br" };
+
+	private ETags() {
+	}
+
+	/**
+	 * An ETag from the file's identity (inode where the file system has one),
+	 * modification time and size, so it changes whenever the file is replaced
+	 * or modified without reading its content.
+	 */
+	public static AsciiString of(BasicFileAttributes attrs) {
+		final Object fileKey = attrs.fileKey();
+		final StringBuilder sb = new StringBuilder(48).append('"');
+		if (fileKey != null)
+			sb.append(Integer.toHexString(fileKey.hashCode())).append('-');
+		sb.append(Long.toHexString(attrs.lastModifiedTime().toMillis())).append('-')
+				.append(Long.toHexString(attrs.size())).append('"');
+		return new AsciiString(sb);
+	}
+
+	/**
+	 * An ETag from a 64-bit FNV-1a hash of the readable bytes, for responses
+	 * that have no cheaper version identifier.
+	 */
+	public static AsciiString of(ByteBuf content) {
+		final Fnv1a fnv = new Fnv1a();
+		content.forEachByte(fnv);
+		return new AsciiString("\"" + Long.toHexString(fnv.hash) + "\"");
+	}
+
+	private static final class Fnv1a implements ByteProcessor {
+		long hash = FNV_OFFSET_BASIS;
+
+		@Override
+		public boolean process(byte value) {
+			hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+			return true;
+		}
+	}
+
+	/**
+	 * @return the tag of another representation of the same resource, e.g.
+	 *         its gzip variant
+	 */
+	public static AsciiString variant(AsciiString etag, String suffix) {
+		return new AsciiString(variant(etag.toString(), suffix));
+	}
+
+	/**
+	 * @return the tag of the representation a content coding such as gzip
+	 *         produced on the fly, or the tag itself when it is weak
+	 */
+	public static String variant(String etag, String suffix) {
+		if (etag.startsWith("W/") || etag.length() < 2 || !etag.endsWith("\""))
+			return etag;
+		return etag.substring(0, etag.length() - 1) + "-" + suffix + "\"";
+	}
+
+	/**
+	 * Weak comparison, as If-None-Match requires.
+	 *
+	 * @param ifNoneMatch the header value, may be null
+	 * @return whether the client already has the representation
+	 */
+	public static boolean matches(CharSequence ifNoneMatch, AsciiString etag) {
+		if (ifNoneMatch == null)
+			return false;
+		final String value = ifNoneMatch.toString().trim();
+		if ("*".equals(value))
+			return true;
+
+		int start = 0;
+		while (start < value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0)
+				end = value.length();
+			String tag = value.substring(start, end).trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (etag.contentEquals(tag) || isCodingVariant(tag, etag))
+				return true;
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether {@code tag} is {@code etag} with the suffix of a content
+	 *         coding, which still names the same version of the resource
+	 */
+	private static boolean isCodingVariant(String tag, AsciiString etag) {
+		final int base = etag.length() - 1;
+		if (tag.length() <= base + 2 || tag.charAt(base) != '-' || tag.charAt(tag.length() - 1) != '"'
+				|| !tag.regionMatches(0, etag.toString(), 0, base))
+			return false;
+		for (String coding : CODINGS) {
+			if (tag.length() == base + coding.length() + 2 && tag.regionMatches(base + 1, coding, 0, coding.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Strong comparison, as If-Range requires.
+	 */
+	public static boolean matchesStrongly(CharSequence ifRange, AsciiString etag) {
+		return ifRange != null && etag.contentEquals(ifRange.toString().trim());
+	}
+}
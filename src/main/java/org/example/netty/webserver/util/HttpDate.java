@@ -0,0 +1,88 @@
+package org.example.netty.webserver.util;
+
+import java.util.Date;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * HTTP dates (RFC 1123) for response headers. Each thread, in practice each
+ * event loop, keeps its own clock that formats the current second once into an
+ * {@link AsciiString}, so every other response in that second reuses it
+ * without allocating or locking.
+ *
+ * @author gang
+ *
+ */
+public final class HttpDate {
+	private static final FastThreadLocal<Clock> CLOCK = new FastThreadLocal<Clock>() {
+		@Override
+		protected Clock initialValue() {
+			return new Clock();
+		}
+	};
+
+	private HttpDate() {
+	}
+
+	/**
+	 * @return the current time, for the Date header
+	 */
+	public static AsciiString now() {
+		return CLOCK.get().now(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the current time plus some seconds, e.g. for the Expires header
+	 */
+	public static AsciiString plusSeconds(int seconds) {
+		return CLOCK.get().plusSeconds(System.currentTimeMillis(), seconds);
+	}
+
+	/**
+	 * Formats an arbitrary time, e.g. a file's last modification.
+	 */
+	public static String format(long millis) {
+		return DateFormatter.format(new Date(millis));
+	}
+
+	/**
+	 * @return the time in milliseconds, or -1 when the value is not a valid
+	 *         HTTP date
+	 */
+	public static long parse(CharSequence value) {
+		if (value == null)
+			return -1;
+		Date date = DateFormatter.parseHttpDate(value);
+		return date == null ? -1 : date.getTime();
+	}
+
+	private static final class Clock {
+		private long second = Long.MIN_VALUE;
+		private AsciiString now;
+
+		private long offsetSecond = Long.MIN_VALUE;
+		private int offset;
+		private AsciiString offsetValue;
+
+		AsciiString now(long millis) {
+			long s = millis / 1000;
+			if (s != second) {
+				second = s;
+				now = new AsciiString(format(s * 1000));
+			}
+			return now;
+		}
+
+		AsciiString plusSeconds(long millis, int seconds) {
+			long s = millis / 1000;
+			if (s != offsetSecond || seconds != offset) {
+				offsetSecond = s;
+				offset = seconds;
+				offsetValue = new AsciiString(format((s + seconds) * 1000));
+			}
+			return offsetValue;
+		}
+	}
+}
@@ -3,17 +3,18 @@ package org.example.netty.webserver.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.Locale;
-import java.util.TimeZone;
-
-import javax.activation.MimetypesFileTypeMap;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.example.netty.webserver.HttpRequestHandler;
+import org.example.netty.webserver.HttpServerCompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -21,19 +22,24 @@ import io.netty.channel.ChannelProgressiveFuture;
 import io.netty.channel.ChannelProgressiveFutureListener;
 import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
-import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpChunkedInput;
 import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedFile;
 import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.AsciiString;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 import static io.netty.handler.codec.http.HttpVersion.*;
@@ -41,32 +47,60 @@ import static io.netty.handler.codec.http.HttpVersion.*;
 // https://netty.io/4.1/xref/io/netty/example/http/file/HttpStaticFileServerHandler.html
 
 public class HttpStaticFileHelper {
+	private static final Logger logger = LoggerFactory.getLogger(HttpStaticFileHelper.class);
+
 	public static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
 	public static final String HTTP_DATE_GMT_TIMEZONE = "GMT";
 	public static final int HTTP_CACHE_SECONDS = 60;
+
+	private static final AsciiString CACHE_CONTROL_VALUE = AsciiString.cached("private, max-age=" + HTTP_CACHE_SECONDS);
 	
 	public static void servFile(final ChannelHandlerContext ctx, 
-			final FullHttpRequest request, final File file) throws Exception {
-		// Cache Validation
-		String ifModifiedSince = request.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE);
-		if (ifModifiedSince != null && !ifModifiedSince.isEmpty()) {
-			SimpleDateFormat dateFormatter = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
-			Date ifModifiedSinceDate = dateFormatter.parse(ifModifiedSince);
-
-			// Only compare up to the second because the datetime format we send
-			// to the client
-			// does not have milliseconds
-			long ifModifiedSinceDateSeconds = ifModifiedSinceDate.getTime() / 1000;
-			long fileLastModifiedSeconds = file.lastModified() / 1000;
-			if (ifModifiedSinceDateSeconds == fileLastModifiedSeconds) {
-				sendNotModified(ctx, request);
+			final HttpRequest request, final File file) throws Exception {
+		final StaticFileCache cache = ctx.channel().attr(StaticFileCache.KEY).get();
+		if (cache != null) {
+			// a miss is loaded off the event loop and served from disk meanwhile
+			final StaticFileCache.Entry entry = cache.getIfPresent(file);
+			if (entry == null)
+				cache.prefetch(file);
+			else if (servCached(ctx, request, entry))
 				return;
-			}
+		}
+
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (NoSuchFileException ignore) {
+			HttpRequestHandler.sendNotFound(ctx, request);
+			return;
+		}
+		final long lastModified = attrs.lastModifiedTime().toMillis();
+		AsciiString etag = ETags.of(attrs);
+
+		// ranges always refer to the file itself
+		final String range = request.headers().get(HttpHeaderNames.RANGE);
+		final boolean rangeRequested = range != null && HttpMethod.GET.equals(request.method())
+				&& ifRangeMatches(request, lastModified, etag);
+
+		// a precompressed sibling goes out as is, zero-copy
+		File body = file;
+		AsciiString contentEncoding = null;
+		File gz = new File(file.getPath() + ".gz");
+		if (!rangeRequested && acceptsGzip(request) && gz.isFile() && gz.lastModified() >= lastModified) {
+			body = gz;
+			contentEncoding = HttpHeaderValues.GZIP;
+			etag = ETags.variant(etag, HttpHeaderValues.GZIP.toString());
+		}
+
+		// Cache Validation
+		if (isNotModified(request, lastModified, etag)) {
+			sendNotModified(ctx, request, etag);
+			return;
 		}
 		
 		RandomAccessFile raf;
 		try {
-			raf = new RandomAccessFile(file, "r");
+			raf = new RandomAccessFile(body, "r");
 		} catch (FileNotFoundException ignore) {
 			HttpRequestHandler.sendNotFound(ctx, request);
 			return;
@@ -74,10 +108,28 @@ public class HttpStaticFileHelper {
 		
 		long fileLength = raf.length();
 
+		if (rangeRequested) {
+			ByteRanges ranges = ByteRanges.parse(range, fileLength);
+			if (ranges != null) {
+				if (!ranges.isSatisfiable()) {
+					raf.close();
+					sendRangeNotSatisfiable(ctx, request, fileLength);
+				} else {
+					servRanges(ctx, request, file, raf, ranges, fileLength, lastModified, etag);
+				}
+				return;
+			}
+		}
+
 		HttpResponse response = new DefaultHttpResponse(request.protocolVersion(), OK);
 		HttpUtil.setContentLength(response, fileLength);
 		setContentTypeHeader(response, file);
-		setDateAndCacheHeaders(response, file);
+		setDateAndCacheHeaders(response, lastModified, etag);
+		response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+		if (contentEncoding != null) {
+			response.headers().set(HttpHeaderNames.CONTENT_ENCODING, contentEncoding);
+			response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		}
 		if (HttpUtil.isKeepAlive(request)) {
 			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
 		}
@@ -88,8 +140,7 @@ public class HttpStaticFileHelper {
 		// Write the content.
 		ChannelFuture sendFileFuture;
 		ChannelFuture lastContentFuture;
-		if (ctx.pipeline().get(SslHandler.class) == null
-				&& ctx.pipeline().get(HttpContentCompressor.class) == null) {
+		if (isZeroCopy(ctx, request, response)) {
 			sendFileFuture = ctx.write(new DefaultFileRegion(raf.getChannel(), 0, fileLength),
 					ctx.newProgressivePromise());
 			// Write the end marker.
@@ -105,21 +156,23 @@ public class HttpStaticFileHelper {
 			//lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
 		}
 
-		sendFileFuture.addListener(new ChannelProgressiveFutureListener() {
-			@Override
-			public void operationProgressed(ChannelProgressiveFuture future, long progress, long total) {
-				if (total < 0) { // total unknown
-					System.err.println(future.channel() + " Transfer progress: " + progress);
-				} else {
-					System.err.println(future.channel() + " Transfer progress: " + progress + " / " + total);
+		if (logger.isTraceEnabled()) {
+			sendFileFuture.addListener(new ChannelProgressiveFutureListener() {
+				@Override
+				public void operationProgressed(ChannelProgressiveFuture future, long progress, long total) {
+					if (total < 0) { // total unknown
+						logger.trace("{} Transfer progress: {}", future.channel(), progress);
+					} else {
+						logger.trace("{} Transfer progress: {} / {}", future.channel(), progress, total);
+					}
 				}
-			}
 
-			@Override
-			public void operationComplete(ChannelProgressiveFuture future) {
-				System.err.println(future.channel() + " Transfer complete.");
-			}
-		});
+				@Override
+				public void operationComplete(ChannelProgressiveFuture future) {
+					logger.trace("{} Transfer complete.", future.channel());
+				}
+			});
+		}
 
 		// Decide whether to close the connection or not.
 		if (!HttpUtil.isKeepAlive(request)) {
@@ -129,18 +182,223 @@ public class HttpStaticFileHelper {
 	}
 	
 	/**
-	 * When file timestamp is the same as what the browser is sending up, send a
-	 * "304 Not Modified"
+	 * Sends one or more ranges of a file with 206 Partial Content. A single
+	 * range is the body itself, several make a multipart/byteranges body; the
+	 * file parts are written zero-copy whenever possible.
+	 */
+	private static void servRanges(final ChannelHandlerContext ctx, final HttpRequest request, final File file,
+			final RandomAccessFile raf, final ByteRanges ranges, final long fileLength, final long lastModified,
+			final AsciiString etag) throws Exception {
+		HttpResponse response = new DefaultHttpResponse(request.protocolVersion(), PARTIAL_CONTENT);
+		setDateAndCacheHeaders(response, lastModified, etag);
+		response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+		boolean keepAlive = HttpUtil.isKeepAlive(request);
+		if (keepAlive) {
+			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		}
+
+		ChannelFuture lastContentFuture;
+		if (ranges.size() == 1) {
+			final long offset = ranges.first(0);
+			final long length = ranges.length(0);
+			HttpUtil.setContentLength(response, length);
+			setContentTypeHeader(response, file);
+			response.headers().set(HttpHeaderNames.CONTENT_RANGE, ranges.contentRange(0, fileLength));
+
+			ctx.write(response);
+			if (isZeroCopy(ctx, request, response)) {
+				ctx.write(new DefaultFileRegion(raf.getChannel(), offset, length));
+				lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+			} else {
+				lastContentFuture = ctx.writeAndFlush(new HttpChunkedInput(new ChunkedFile(raf, offset, length, 8192)));
+			}
+		} else {
+			// every part reads the file on its own, closing it when done
+			raf.close();
+
+			final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+			final AsciiString contentType = MimeTypes.of(file.getName());
+			final ByteBuf[] heads = new ByteBuf[ranges.size()];
+			long contentLength = 0;
+			for (int i = 0; i < heads.length; i++) {
+				String head = (i == 0 ? "--" : "\r\n--") + boundary + "\r\n"
+						+ HttpHeaderNames.CONTENT_TYPE + ": " + contentType + "\r\n"
+						+ HttpHeaderNames.CONTENT_RANGE + ": " + ranges.contentRange(i, fileLength) + "\r\n\r\n";
+				heads[i] = ByteBufUtil.writeAscii(ctx.alloc(), head);
+				contentLength += heads[i].readableBytes() + ranges.length(i);
+			}
+			final ByteBuf tail = ByteBufUtil.writeAscii(ctx.alloc(), "\r\n--" + boundary + "--\r\n");
+			contentLength += tail.readableBytes();
+
+			HttpUtil.setContentLength(response, contentLength);
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+
+			ctx.write(response);
+			final boolean zeroCopy = isZeroCopy(ctx, request, response);
+			for (int i = 0; i < heads.length; i++) {
+				ctx.write(new DefaultHttpContent(heads[i]));
+				if (zeroCopy) {
+					ctx.write(new DefaultFileRegion(file, ranges.first(i), ranges.length(i)));
+				} else {
+					ctx.write(new ChunkedFile(new RandomAccessFile(file, "r"), ranges.first(i), ranges.length(i), 8192));
+				}
+			}
+			lastContentFuture = ctx.writeAndFlush(new DefaultLastHttpContent(tail));
+		}
+
+		if (!keepAlive) {
+			lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * @return whether the Range header applies: there is no If-Range, or it
+	 *         names the current version of the file by ETag or date
+	 */
+	private static boolean ifRangeMatches(final HttpRequest request, final long lastModified,
+			final AsciiString etag) {
+		String ifRange = request.headers().get(HttpHeaderNames.IF_RANGE);
+		if (ifRange == null)
+			return true;
+		if (ETags.matchesStrongly(ifRange, etag))
+			return true;
+		long date = HttpDate.parse(ifRange);
+		return date >= 0 && date / 1000 == lastModified / 1000;
+	}
+
+	/**
+	 * If-None-Match takes precedence over If-Modified-Since. Dates are compared
+	 * in seconds because the Last-Modified header has no milliseconds.
+	 */
+	private static boolean isNotModified(final HttpRequest request, final long lastModified,
+			final AsciiString etag) {
+		String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+		if (ifNoneMatch != null)
+			return ETags.matches(ifNoneMatch, etag);
+
+		long ifModifiedSince = HttpDate.parse(request.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE));
+		return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	private static void sendRangeNotSatisfiable(final ChannelHandlerContext ctx, final HttpRequest request,
+			final long fileLength) {
+		FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+				REQUESTED_RANGE_NOT_SATISFIABLE);
+		response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + fileLength);
+		response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+		setDateHeader(response);
+
+		boolean keepAlive = HttpUtil.isKeepAlive(request);
+		if (keepAlive) {
+			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		}
+		ChannelFuture future = ctx.writeAndFlush(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * A {@link DefaultFileRegion} bypasses the handlers that transform content,
+	 * so it can only be used without TLS and when the compressor leaves this
+	 * response alone, including when the client accepts none of its codings.
+	 */
+	private static boolean isZeroCopy(final ChannelHandlerContext ctx, final HttpRequest request,
+			final HttpResponse response) {
+		if (ctx.pipeline().get(SslHandler.class) != null)
+			return false;
+
+		final HttpContentCompressor compressor = ctx.pipeline().get(HttpContentCompressor.class);
+		if (compressor == null)
+			return true;
+		return compressor instanceof HttpServerCompressor
+				&& !((HttpServerCompressor) compressor).isCompressible(response,
+						request.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+	}
+
+	private static boolean acceptsGzip(final HttpRequest request) {
+		String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+		return AcceptEncoding.accepts(acceptEncoding, HttpHeaderValues.GZIP);
+	}
+
+	/**
+	 * Serves a file from the {@link StaticFileCache} with a single write,
+	 * choosing the smallest variant the client accepts.
+	 *
+	 * @return false for range requests and when the entry was evicted before
+	 *         it could be used
+	 */
+	private static boolean servCached(final ChannelHandlerContext ctx, final HttpRequest request,
+			final StaticFileCache.Entry entry) {
+		// ranges are read from disk, zero-copy
+		if (request.headers().contains(HttpHeaderNames.RANGE))
+			return false;
+
+		final AsciiString encoding = entry.selectEncoding(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+		final AsciiString etag = entry.getETag(encoding);
+
+		// Cache Validation
+		if (isNotModified(request, entry.getLastModified(), etag)) {
+			sendNotModified(ctx, request, etag);
+			return true;
+		}
+
+		final ByteBuf content = entry.retainedContent(encoding);
+		if (content == null)
+			return false;
+
+		FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), OK, content);
+		HttpHeaders headers = response.headers();
+		headers.setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+		headers.set(HttpHeaderNames.CONTENT_TYPE, entry.getContentType());
+		if (encoding != null)
+			headers.set(HttpHeaderNames.CONTENT_ENCODING, encoding);
+		if (entry.hasVariants())
+			headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		headers.set(HttpHeaderNames.DATE, HttpDate.now());
+		headers.set(HttpHeaderNames.EXPIRES, HttpDate.plusSeconds(HTTP_CACHE_SECONDS));
+		headers.set(HttpHeaderNames.CACHE_CONTROL, CACHE_CONTROL_VALUE);
+		headers.set(HttpHeaderNames.LAST_MODIFIED, entry.getLastModifiedValue());
+		headers.set(HttpHeaderNames.ETAG, etag);
+		headers.set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+
+		boolean keepAlive = HttpUtil.isKeepAlive(request);
+		if (keepAlive) {
+			headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		}
+
+		ChannelFuture future = ctx.writeAndFlush(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+		return true;
+	}
+
+	/**
+	 * When the browser already has the current version of the file, send a
+	 * "304 Not Modified" without a body
 	 *
 	 * @param ctx
 	 *            Context
+	 * @param etag
+	 *            the file's ETag
 	 */
-	private static void sendNotModified(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+	private static void sendNotModified(final ChannelHandlerContext ctx, final HttpRequest request,
+			final AsciiString etag) {
 		FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), NOT_MODIFIED);
 		setDateHeader(response);
+		response.headers().set(HttpHeaderNames.ETAG, etag);
+		response.headers().set(HttpHeaderNames.EXPIRES, HttpDate.plusSeconds(HTTP_CACHE_SECONDS));
+		response.headers().set(HttpHeaderNames.CACHE_CONTROL, CACHE_CONTROL_VALUE);
 
-		// Close the connection as soon as the error message is sent.
-		ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+		boolean keepAlive = HttpUtil.isKeepAlive(request);
+		if (keepAlive) {
+			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		}
+		ChannelFuture future = ctx.writeAndFlush(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
 	}
 	
 	/**
@@ -150,11 +408,7 @@ public class HttpStaticFileHelper {
 	 *            HTTP response
 	 */
 	private static void setDateHeader(FullHttpResponse response) {
-		SimpleDateFormat dateFormatter = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
-		dateFormatter.setTimeZone(TimeZone.getTimeZone(HTTP_DATE_GMT_TIMEZONE));
-
-		Calendar time = new GregorianCalendar();
-		response.headers().set(HttpHeaderNames.DATE, dateFormatter.format(time.getTime()));
+		response.headers().set(HttpHeaderNames.DATE, HttpDate.now());
 	}
 
 	/**
@@ -162,23 +416,20 @@ public class HttpStaticFileHelper {
 	 *
 	 * @param response
 	 *            HTTP response
-	 * @param fileToCache
-	 *            file to extract content type
+	 * @param lastModified
+	 *            the file's modification time
+	 * @param etag
+	 *            the file's ETag
 	 */
-	private static void setDateAndCacheHeaders(HttpResponse response, File fileToCache) {
-		SimpleDateFormat dateFormatter = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
-		dateFormatter.setTimeZone(TimeZone.getTimeZone(HTTP_DATE_GMT_TIMEZONE));
-
+	private static void setDateAndCacheHeaders(HttpResponse response, long lastModified, AsciiString etag) {
 		// Date header
-		Calendar time = new GregorianCalendar();
-		response.headers().set(HttpHeaderNames.DATE, dateFormatter.format(time.getTime()));
+		response.headers().set(HttpHeaderNames.DATE, HttpDate.now());
 
 		// Add cache headers
-		time.add(Calendar.SECOND, HTTP_CACHE_SECONDS);
-		response.headers().set(HttpHeaderNames.EXPIRES, dateFormatter.format(time.getTime()));
-		response.headers().set(HttpHeaderNames.CACHE_CONTROL, "private, max-age=" + HTTP_CACHE_SECONDS);
-		response.headers().set(HttpHeaderNames.LAST_MODIFIED,
-				dateFormatter.format(new Date(fileToCache.lastModified())));
+		response.headers().set(HttpHeaderNames.EXPIRES, HttpDate.plusSeconds(HTTP_CACHE_SECONDS));
+		response.headers().set(HttpHeaderNames.CACHE_CONTROL, CACHE_CONTROL_VALUE);
+		response.headers().set(HttpHeaderNames.LAST_MODIFIED, HttpDate.format(lastModified));
+		response.headers().set(HttpHeaderNames.ETAG, etag);
 	}
 
 	/**
@@ -190,7 +441,6 @@ public class HttpStaticFileHelper {
 	 *            file to extract content type
 	 */
 	private static void setContentTypeHeader(HttpResponse response, File file) {
-		MimetypesFileTypeMap mimeTypesMap = new MimetypesFileTypeMap();
-		response.headers().set(HttpHeaderNames.CONTENT_TYPE, mimeTypesMap.getContentType(file.getPath()));
+		response.headers().set(HttpHeaderNames.CONTENT_TYPE, MimeTypes.of(file.getName()));
 	}
 }
@@ -0,0 +1,97 @@
+package org.example.netty.webserver.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.activation.MimetypesFileTypeMap;
+
+import io.netty.util.AsciiString;
+
+/**
+ * Content types of static files by extension. Common web types are built in;
+ * anything else is looked up once in a shared {@link MimetypesFileTypeMap} and
+ * remembered, instead of loading the mime.types tables on every response.
+ *
+ * @author gang
+ *
+ */
+public final class MimeTypes {
+	public static final AsciiString DEFAULT = AsciiString.cached("application/octet-stream");
+
+	private static final Map<String, AsciiString> BUILT_IN = new HashMap<String, AsciiString>();
+	private static final ConcurrentHashMap<String, AsciiString> LOOKED_UP = new ConcurrentHashMap<String, AsciiString>();
+	private static final MimetypesFileTypeMap FILE_TYPE_MAP = new MimetypesFileTypeMap();
+
+	static {
+		add("text/html; charset=UTF-8", "html", "htm");
+		add("text/css; charset=UTF-8", "css");
+		add("text/plain; charset=UTF-8", "txt", "text", "log");
+		add("text/csv; charset=UTF-8", "csv");
+		add("text/xml; charset=UTF-8", "xml");
+		add("application/javascript; charset=UTF-8", "js", "mjs");
+		add("application/json; charset=UTF-8", "json", "map");
+		add("application/wasm", "wasm");
+		add("application/pdf", "pdf");
+		add("application/zip", "zip");
+		add("application/gzip", "gz");
+		add("image/png", "png");
+		add("image/jpeg", "jpg", "jpeg");
+		add("image/gif", "gif");
+		add("image/webp", "webp");
+		add("image/svg+xml", "svg");
+		add("image/x-icon", "ico");
+		add("font/woff", "woff");
+		add("font/woff2", "woff2");
+		add("font/ttf", "ttf");
+		add("video/mp4", "mp4");
+		add("audio/mpeg", "mp3");
+	}
+
+	private MimeTypes() {
+	}
+
+	private static void add(String type, String... extensions) {
+		AsciiString value = AsciiString.cached(type);
+		for (String ext : extensions)
+			BUILT_IN.put(ext, value);
+	}
+
+	/**
+	 * @return the content type for a file name or path, never null
+	 */
+	public static AsciiString of(String path) {
+		final int slash = path.lastIndexOf('/');
+		final int dot = path.lastIndexOf('.');
+		if (dot <= slash)
+			return DEFAULT;
+
+		final String ext = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+		AsciiString type = BUILT_IN.get(ext);
+		if (type != null)
+			return type;
+
+		type = LOOKED_UP.get(ext);
+		if (type == null) {
+			type = AsciiString.cached(FILE_TYPE_MAP.getContentType(path));
+			LOOKED_UP.putIfAbsent(ext, type);
+		}
+		return type;
+	}
+
+	/**
+	 * @return whether compressing a body of this type is worth it; images,
+	 *         audio, video and archives are usually compressed already
+	 */
+	public static boolean isCompressible(CharSequence contentType) {
+		if (contentType == null)
+			return false;
+		final String type = contentType.toString();
+		if (type.startsWith("text/"))
+			return true;
+		return type.contains("json") || type.contains("javascript") || type.contains("xml")
+				|| type.startsWith("application/wasm") || type.startsWith("font/ttf")
+				|| type.startsWith("image/x-icon");
+	}
+}
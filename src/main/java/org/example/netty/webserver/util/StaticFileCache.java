@@ -0,0 +1,469 @@
+package org.example.netty.webserver.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AsciiString;
+import io.netty.util.AttributeKey;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Keeps hot static files in direct memory so they are served with a single
+ * write, without opening or even stat-ing the file. Alongside the file itself
+ * each entry holds a gzip variant, compressed once when the file is loaded (or
+ * taken from a {@code .gz} sibling), and a brotli variant when a {@code .br}
+ * sibling exists.
+ * <p>
+ * Entries are evicted least recently used first once the cache holds more than
+ * {@code maxBytes}; files larger than {@code maxFileSize} are never cached.
+ * Lookups take no lock: a hit only stamps the entry's access time, and the
+ * eviction runs when a file is added, on the thread that loaded it. The
+ * directories of cached files are watched and an entry is dropped as soon as
+ * its file or one of its siblings changes.
+ * <p>
+ * Files are loaded and compressed on a loader thread: on the event loop use
+ * {@link #getIfPresent} and {@link #prefetch}, serving a miss from disk.
+ * <p>
+ * A cache may be shared by several servers; whoever creates one closes it.
+ *
+ * @author gang
+ *
+ */
+public class StaticFileCache implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(StaticFileCache.class);
+
+	/** the cache used by a channel's static file responses, if any */
+	public static final AttributeKey<StaticFileCache> KEY = AttributeKey.valueOf(StaticFileCache.class, "cache");
+
+	public static final AsciiString GZIP = AsciiString.cached("gzip");
+	public static final AsciiString BR = AsciiString.cached("br");
+
+	/** bodies smaller than this are not worth compressing */
+	public static final int MIN_COMPRESS_SIZE = 1024;
+
+	private final long maxBytes;
+	private final long maxFileSize;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>(64);
+	/** guarded by the cache, as are all changes of the entries */
+	private long bytes;
+
+	private final WatchService watcher;
+	private final Set<Path> watched = new HashSet<Path>();
+	private final Thread watchThread;
+	private final ExecutorService loader;
+	/** files queued for the loader */
+	private final Set<String> loading = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
+
+	/**
+	 * @param maxBytes total size of all cached variants
+	 * @param maxFileSize largest file that is cached
+	 */
+	public StaticFileCache(long maxBytes, long maxFileSize) throws IOException {
+		this.maxBytes = maxBytes;
+		this.maxFileSize = maxFileSize;
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.watchThread = new DefaultThreadFactory("static-file-cache", true).newThread(this::watch);
+		this.watchThread.start();
+		this.loader = Executors.newSingleThreadExecutor(new DefaultThreadFactory("static-file-loader", true));
+	}
+
+	/**
+	 * @return the cached file, or null on a miss; never touches the disk
+	 */
+	public Entry getIfPresent(File file) {
+		final Entry entry = entries.get(file.getAbsolutePath());
+		if (entry != null)
+			entry.accessed = System.nanoTime();
+		return entry;
+	}
+
+	/**
+	 * Loads a file into the cache in the background, unless it is already
+	 * cached or being loaded.
+	 */
+	public void prefetch(final File file) {
+		final String key = file.getAbsolutePath();
+		if (closed || entries.containsKey(key) || !loading.add(key))
+			return;
+		try {
+			loader.execute(() -> {
+				try {
+					get(file);
+				} catch (IOException | RuntimeException ex) {
+					logger.debug("Cannot cache {}", file, ex);
+				} finally {
+					loading.remove(key);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			loading.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the cached file, loading it on a miss. A miss reads and
+	 * compresses the file on the calling thread.
+	 *
+	 * @return the entry, or null when the file does not exist or is too large
+	 *         to be cached
+	 */
+	public Entry get(File file) throws IOException {
+		final Entry entry = getIfPresent(file);
+		if (entry != null)
+			return entry;
+
+		if (!file.isFile() || file.length() > maxFileSize)
+			return null;
+
+		final Entry loaded = load(file);
+		synchronized (this) {
+			if (closed) {
+				loaded.release();
+				return null;
+			}
+			final Entry previous = entries.put(file.getAbsolutePath(), loaded);
+			if (previous != null)
+				remove(previous);
+			bytes += loaded.size();
+			evict();
+		}
+		return loaded;
+	}
+
+	/**
+	 * @return the number of cached files
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the total size of the cached variants
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Drops a file, e.g. after it was replaced by the application.
+	 */
+	public synchronized void invalidate(File file) {
+		final Entry entry = entries.remove(file.getAbsolutePath());
+		if (entry != null)
+			remove(entry);
+	}
+
+	public synchronized void clear() {
+		final Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			it.remove();
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Drops the least recently used entries until the cache fits.
+	 */
+	private void evict() {
+		if (bytes <= maxBytes)
+			return;
+		final List<Entry> eldestFirst = new ArrayList<Entry>(entries.values());
+		// sort on a snapshot, lookups keep stamping meanwhile
+		for (Entry entry : eldestFirst)
+			entry.evictionStamp = entry.accessed;
+		eldestFirst.sort(Comparator.comparingLong(entry -> entry.evictionStamp));
+		for (Iterator<Entry> it = eldestFirst.iterator(); bytes > maxBytes && it.hasNext();) {
+			final Entry eldest = it.next();
+			if (entries.remove(eldest.file.getAbsolutePath(), eldest))
+				remove(eldest);
+		}
+	}
+
+	private void remove(Entry entry) {
+		bytes -= entry.size();
+		entry.release();
+	}
+
+	private Entry load(File file) throws IOException {
+		// watch first, so a change while the file is read still drops the entry
+		watch(file.getAbsoluteFile().toPath().getParent());
+
+		final BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		final long lastModified = attrs.lastModifiedTime().toMillis();
+		final ByteBuf content = read(file);
+		final AsciiString contentType = MimeTypes.of(file.getName());
+
+		ByteBuf gzip = null;
+		try {
+			gzip = readSibling(file, ".gz", lastModified);
+			if (gzip == null && content.readableBytes() >= MIN_COMPRESS_SIZE && MimeTypes.isCompressible(contentType))
+				gzip = gzip(content);
+			final ByteBuf br = readSibling(file, ".br", lastModified);
+			return new Entry(file, lastModified, ETags.of(attrs), contentType, content, gzip, br);
+		} catch (IOException | RuntimeException ex) {
+			content.release();
+			if (gzip != null)
+				gzip.release();
+			throw ex;
+		}
+	}
+
+	private ByteBuf readSibling(File file, String suffix, long lastModified) throws IOException {
+		final File sibling = new File(file.getPath() + suffix);
+		if (!sibling.isFile() || sibling.lastModified() < lastModified || sibling.length() > maxFileSize)
+			return null;
+		return read(sibling);
+	}
+
+	private static ByteBuf read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final int length = (int) channel.size();
+			final ByteBuf buf = Unpooled.directBuffer(length, length);
+			try {
+				while (buf.isWritable()) {
+					if (buf.writeBytes(channel, buf.writerIndex(), buf.writableBytes()) < 0)
+						break;
+				}
+				return buf;
+			} catch (IOException | RuntimeException ex) {
+				buf.release();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * @return the compressed copy, or null when it would not be meaningfully
+	 *         smaller
+	 */
+	private static ByteBuf gzip(ByteBuf content) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(content.readableBytes() / 2);
+		try (GZIPOutputStream gz = new GZIPOutputStream(out, 8192)) {
+			content.getBytes(content.readerIndex(), gz, content.readableBytes());
+		}
+		if (out.size() > content.readableBytes() * 9 / 10)
+			return null;
+
+		final ByteBuf buf = Unpooled.directBuffer(out.size(), out.size());
+		buf.writeBytes(out.toByteArray());
+		return buf;
+	}
+
+	private void watch(Path dir) {
+		synchronized (watched) {
+			if (dir == null || closed || !watched.add(dir))
+				return;
+			try {
+				dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException ex) {
+				logger.warn("Cannot watch {}, its files stay cached until evicted", dir, ex);
+			}
+		}
+	}
+
+	private void watch() {
+		while (!closed) {
+			final WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException ex) {
+				return;
+			}
+
+			final Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					invalidateDirectory(dir);
+					continue;
+				}
+				String name = dir.resolve((Path) event.context()).toString();
+				if (name.endsWith(".gz") || name.endsWith(".br"))
+					name = name.substring(0, name.length() - 3);
+				synchronized (this) {
+					final Entry entry = entries.remove(name);
+					if (entry != null)
+						remove(entry);
+				}
+			}
+
+			if (!key.reset()) {
+				synchronized (watched) {
+					watched.remove(dir);
+				}
+				invalidateDirectory(dir);
+			}
+		}
+	}
+
+	private synchronized void invalidateDirectory(Path dir) {
+		final Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			if (dir.equals(entry.file.getAbsoluteFile().toPath().getParent())) {
+				it.remove();
+				remove(entry);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (watched) {
+			closed = true;
+		}
+		loader.shutdownNow();
+		try {
+			watcher.close();
+		} catch (IOException ex) {
+			logger.debug("", ex);
+		}
+		clear();
+	}
+
+	/**
+	 * A cached file. The buffers are shared between all responses and released
+	 * when the entry is evicted.
+	 */
+	public static final class Entry {
+		private final File file;
+		private final long lastModified;
+		private final AsciiString lastModifiedValue;
+		private final AsciiString etag;
+		private final AsciiString gzipETag;
+		private final AsciiString brETag;
+		private final AsciiString contentType;
+		private final ByteBuf content;
+		private final ByteBuf gzip;
+		private final ByteBuf br;
+
+		/** when the entry was last looked up, for the LRU eviction */
+		private volatile long accessed = System.nanoTime();
+		/** {@link #accessed} as seen by the current eviction, guarded by the cache */
+		private long evictionStamp;
+
+		Entry(File file, long lastModified, AsciiString etag, AsciiString contentType,
+				ByteBuf content, ByteBuf gzip, ByteBuf br) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.lastModifiedValue = new AsciiString(HttpDate.format(lastModified));
+			this.etag = etag;
+			this.gzipETag = gzip == null ? null : ETags.variant(etag, GZIP.toString());
+			this.brETag = br == null ? null : ETags.variant(etag, BR.toString());
+			this.contentType = contentType;
+			this.content = content;
+			this.gzip = gzip;
+			this.br = br;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public AsciiString getLastModifiedValue() {
+			return lastModifiedValue;
+		}
+
+		/**
+		 * @param encoding as returned by {@link #selectEncoding}
+		 * @return the ETag of that variant
+		 */
+		public AsciiString getETag(AsciiString encoding) {
+			return encoding == BR ? brETag : encoding == GZIP ? gzipETag : etag;
+		}
+
+		public AsciiString getContentType() {
+			return contentType;
+		}
+
+		public long getLength() {
+			return content.readableBytes();
+		}
+
+		/**
+		 * @return whether there is a compressed variant
+		 */
+		public boolean hasVariants() {
+			return gzip != null || br != null;
+		}
+
+		/**
+		 * Picks the smallest variant the client accepts.
+		 *
+		 * @param acceptEncoding the request's Accept-Encoding header, may be null
+		 * @return {@link StaticFileCache#BR}, {@link StaticFileCache#GZIP} or
+		 *         null for the file itself
+		 */
+		public AsciiString selectEncoding(CharSequence acceptEncoding) {
+			if (acceptEncoding == null || !hasVariants())
+				return null;
+			if (br != null && AcceptEncoding.accepts(acceptEncoding, BR))
+				return BR;
+			if (gzip != null && AcceptEncoding.accepts(acceptEncoding, GZIP))
+				return GZIP;
+			return null;
+		}
+
+		/**
+		 * @param encoding as returned by {@link #selectEncoding}
+		 * @return a view of the variant that the caller releases, or null when
+		 *         the entry has been evicted in the meantime
+		 */
+		public ByteBuf retainedContent(AsciiString encoding) {
+			final ByteBuf buf = encoding == BR ? br : encoding == GZIP ? gzip : content;
+			try {
+				return buf.retainedDuplicate();
+			} catch (IllegalReferenceCountException evicted) {
+				return null;
+			}
+		}
+
+		long size() {
+			return content.capacity() + (gzip == null ? 0 : gzip.capacity()) + (br == null ? 0 : br.capacity());
+		}
+
+		void release() {
+			content.release();
+			if (gzip != null)
+				gzip.release();
+			if (br != null)
+				br.release();
+		}
+	}
+}
@@ -1,13 +1,16 @@
 package org.example.netty.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -16,6 +19,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
@@ -25,17 +35,23 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.example.apache.hc.HttpClientUtil;
+import org.example.netty.webserver.util.StaticFileCache;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.multipart.Attribute;
 import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
@@ -111,6 +127,186 @@ public class HttpServerTests {
 		*/
 	}
 
+	@Test
+	public void testGetBodyTypes() throws InterruptedException, ClientProtocolException, IOException, URISyntaxException {
+		String expectedContent = "Hello 世界";
+
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/bytes", (request) -> expectedContent.getBytes(StandardCharsets.UTF_8));
+			endpoint.get("/buf", (request) -> Unpooled.copiedBuffer(expectedContent, StandardCharsets.UTF_8));
+			endpoint.get("/chars", (request) -> new StringBuilder(expectedContent));
+			endpoint.get("/response", (request) -> Response.status(HttpResponseStatus.CREATED, expectedContent)
+					.contentType(HttpRequestHandler.TYPE_PLAIN));
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			for (String url : new String[] { "/bytes", "/buf", "/chars", "/response" }) {
+				String content = testHTTPGet("http://localhost:" + PORT + url, null);
+				if (url.equals("/bytes") || url.equals("/buf")) {
+					// application/octet-stream has no charset, the client decodes it as ISO-8859-1
+					content = new String(content.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+				}
+				Assert.assertEquals(expectedContent, content);
+			}
+
+			// a handler's Server header is kept
+			endpoint.get("/server", (request) -> Response.ok("").header("Server", "custom"));
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient();
+					CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/server"))) {
+				Assert.assertEquals(1, response.getHeaders("Server").length);
+				Assert.assertEquals("custom", response.getFirstHeader("Server").getValue());
+			}
+		}
+	}
+
+	@Test
+	public void testGetOffloaded() throws InterruptedException, ClientProtocolException, IOException, URISyntaxException {
+		String url = "/blocking";
+
+		try (final HttpServer endpoint = new HttpServer();
+				final HandlerExecutor executor = HandlerExecutor.bounded("blocking", 1, 0)) {
+			endpoint.get(url, (request) -> Thread.currentThread().getName(),
+					RouteOptions.DEFAULT.executor(executor));
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			Assert.assertTrue(testHTTPGet("http://localhost:" + PORT + url, null).startsWith("blocking"));
+
+			// occupy the only permit, the next request is rejected
+			CountDownLatch latch = new CountDownLatch(1);
+			executor.execute(() -> {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			try {
+				Assert.assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE.reasonPhrase(),
+						testHTTPGet("http://localhost:" + PORT + url, null));
+			} finally {
+				latch.countDown();
+			}
+		}
+	}
+
+	@Test
+	public void testGetAsync() throws InterruptedException, ClientProtocolException, IOException, URISyntaxException {
+		String expectedContent = "Hello async";
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/async", (AsyncHandler) (request, params) -> {
+				CompletableFuture<String> result = new CompletableFuture<String>();
+				scheduler.schedule(() -> result.complete(expectedContent), 100, TimeUnit.MILLISECONDS);
+				return result;
+			});
+			CompletableFuture<String> never = new CompletableFuture<String>();
+			endpoint.get("/never", (AsyncHandler) (request, params) -> never,
+					RouteOptions.DEFAULT.timeout(200, TimeUnit.MILLISECONDS));
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			Assert.assertEquals(expectedContent, testHTTPGet("http://localhost:" + PORT + "/async", null));
+			Assert.assertEquals(HttpResponseStatus.GATEWAY_TIMEOUT.reasonPhrase(),
+					testHTTPGet("http://localhost:" + PORT + "/never", null));
+			Assert.assertTrue(never.isCancelled());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testGetPipelined() throws InterruptedException, IOException {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/slow", (AsyncHandler) (request, params) -> {
+				CompletableFuture<String> result = new CompletableFuture<String>();
+				scheduler.schedule(() -> result.complete("first"), 200, TimeUnit.MILLISECONDS);
+				return result;
+			});
+			endpoint.get("/fast", (request) -> "second");
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			// both requests in one write, the second one answered first by its handler
+			String requests = "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+					+ "GET /fast HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+			try (Socket socket = new Socket("localhost", PORT)) {
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write(requests.getBytes(StandardCharsets.US_ASCII));
+				socket.getOutputStream().flush();
+
+				ByteArrayOutputStream received = new ByteArrayOutputStream();
+				byte[] buf = new byte[4096];
+				for (int n; (n = socket.getInputStream().read(buf)) != -1;)
+					received.write(buf, 0, n);
+
+				String responses = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+				int first = responses.indexOf("first");
+				int second = responses.indexOf("second");
+				Assert.assertTrue(first > 0 && second > first);
+			}
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testIdleTimeout() throws InterruptedException, IOException {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+		HttpServerConfig config = new HttpServerConfig().setIdleTimeouts(0, 0, 300);
+		try (final HttpServer endpoint = new HttpServer(config)) {
+			// outlasts the idle timeout, the connection waits for it
+			endpoint.get("/slow", (AsyncHandler) (request, params) -> {
+				CompletableFuture<String> result = new CompletableFuture<String>();
+				scheduler.schedule(() -> result.complete("slow"), 600, TimeUnit.MILLISECONDS);
+				return result;
+			});
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			try (Socket socket = new Socket("localhost", PORT)) {
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+						.getBytes(StandardCharsets.US_ASCII));
+				socket.getOutputStream().flush();
+
+				// then the idle keep-alive connection is closed by the server
+				ByteArrayOutputStream received = new ByteArrayOutputStream();
+				byte[] buf = new byte[4096];
+				for (int n; (n = socket.getInputStream().read(buf)) != -1;)
+					received.write(buf, 0, n);
+				Assert.assertTrue(new String(received.toByteArray(), StandardCharsets.US_ASCII).endsWith("slow"));
+			}
+
+			ConnectionMetrics connections = endpoint.getMetrics().getConnections();
+			for (int i = 0; i < 50 && connections.getActive() > 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(1, connections.getCloses(ConnectionMetrics.CloseReason.IDLE));
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTransports() throws ClientProtocolException, IOException, URISyntaxException {
+		for (HttpServerConfig.Transport transport : HttpServerConfig.Transport.values()) {
+			HttpServerConfig config = new HttpServerConfig().setTransport(transport).setListeners(2)
+					.setWorkerThreads(2);
+			try (final HttpServer endpoint = new HttpServer(config)) {
+				endpoint.get("/hello", request -> "Hello " + endpoint.getTransport());
+
+				ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+				Assert.assertEquals("Hello " + endpoint.getTransport(),
+						testHTTPGet("http://localhost:" + PORT + "/hello", null));
+			}
+		}
+	}
+
 	@Test
 	public void testGetWithParams() throws InterruptedException, ClientProtocolException, IOException, URISyntaxException {
 		String expectedContent = "Hello world";
@@ -216,6 +412,45 @@ public class HttpServerTests {
 		endpoint.close();
 	}
 	
+	@Test
+	public void testPostStreaming() throws ClientProtocolException, IOException {
+		String url = "/upload";
+		byte[] body = new byte[1024 * 1024];
+		new Random(1).nextBytes(body);
+
+		try (final HttpServer endpoint = new HttpServer();
+				final HandlerExecutor executor = HandlerExecutor.bounded("spool", 1, 16)) {
+			StreamingHandler spool = (request, params) -> new SpooledBody(64 * 1024) {
+				@Override
+				protected Object complete(HttpHeaders trailers) throws Exception {
+					Assert.assertFalse(isInMemory());
+					Assert.assertArrayEquals(body, Files.readAllBytes(file().toPath()));
+					return Long.toString(length());
+				}
+			};
+			endpoint.stream(HttpMethod.POST, url, spool, RouteOptions.DEFAULT.executor(executor));
+			// on the event loop the body may not be spooled to disk
+			endpoint.stream(HttpMethod.POST, "/inline", spool);
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+				HttpPost httpPost = new HttpPost("http://localhost:" + PORT + url);
+				httpPost.setEntity(new ByteArrayEntity(body));
+				try (CloseableHttpResponse response = httpclient.execute(httpPost)) {
+					Assert.assertEquals(Integer.toString(body.length), EntityUtils.toString(response.getEntity()));
+				}
+
+				HttpPost inline = new HttpPost("http://localhost:" + PORT + "/inline");
+				inline.setEntity(new ByteArrayEntity(body));
+				try (CloseableHttpResponse response = httpclient.execute(inline)) {
+					Assert.assertEquals(413, response.getStatusLine().getStatusCode());
+					EntityUtils.consume(response.getEntity());
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testStaticFile() throws ClientProtocolException, IOException, URISyntaxException {
 		String url = "/static/components.png";
@@ -238,6 +473,289 @@ public class HttpServerTests {
 		}
 	}
 	
+	@Test
+	public void testStaticFileCached() throws IOException, URISyntaxException, InterruptedException {
+		Path dir = Files.createTempDirectory("static");
+		Path path = dir.resolve("index.html");
+		StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			html.append("<p>cached ").append(i).append("</p>\n");
+		Files.write(path, html.toString().getBytes(StandardCharsets.UTF_8));
+
+		try (StaticFileCache cache = new StaticFileCache(1024 * 1024, 64 * 1024);
+				final HttpServer endpoint = new HttpServer(new HttpServerConfig().setStaticFileCache(cache))) {
+			endpoint.get("/index.html", request -> path.toFile());
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			// the first request is served from disk while the file is loaded
+			Assert.assertEquals(html.toString(), testHTTPGet("http://localhost:" + PORT + "/index.html", null));
+			for (int i = 0; i < 50 && cache.size() == 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(1, cache.size());
+			Assert.assertEquals(html.toString(), testHTTPGet("http://localhost:" + PORT + "/index.html", null));
+
+			// a refused coding is not selected
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+				HttpGet get = new HttpGet("http://localhost:" + PORT + "/index.html");
+				get.setHeader("Accept-Encoding", "x-gzip-like, gzip;q=0, identity");
+				try (CloseableHttpResponse response = httpclient.execute(get)) {
+					Assert.assertNull(response.getFirstHeader("Content-Encoding"));
+					Assert.assertEquals(html.toString(), EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+				}
+
+				// the cached gzip variant's tag still validates once it is served from disk
+				get.setHeader("Accept-Encoding", "gzip");
+				String etag;
+				try (CloseableHttpResponse response = httpclient.execute(get)) {
+					etag = response.getFirstHeader("ETag").getValue();
+					EntityUtils.consume(response.getEntity());
+				}
+				Assert.assertTrue(etag, etag.endsWith("-gzip\""));
+				cache.invalidate(path.toFile());
+				get.setHeader("If-None-Match", etag);
+				try (CloseableHttpResponse response = httpclient.execute(get)) {
+					Assert.assertEquals(304, response.getStatusLine().getStatusCode());
+				}
+			}
+			for (int i = 0; i < 50 && cache.size() == 0; i++)
+				Thread.sleep(20);
+
+			Files.write(path, "changed".getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; i < 100 && cache.size() > 0; i++)
+				Thread.sleep(100);
+			Assert.assertEquals("changed", testHTTPGet("http://localhost:" + PORT + "/index.html", null));
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	@Test
+	public void testStaticFilePrecompressed() throws IOException, URISyntaxException {
+		Path dir = Files.createTempDirectory("static");
+		Path path = dir.resolve("app.js");
+		Path gz = dir.resolve("app.js.gz");
+		Files.write(path, "plain".getBytes(StandardCharsets.UTF_8));
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+			out.write("precompressed".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/app.js", request -> path.toFile());
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			// the client asks for gzip and transparently decodes it
+			Assert.assertEquals("precompressed", testHTTPGet("http://localhost:" + PORT + "/app.js", null));
+		} finally {
+			Files.deleteIfExists(gz);
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	@Test
+	public void testStaticFileRanges() throws IOException {
+		Path path = Files.createTempFile("range", ".txt");
+		Files.write(path, "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII));
+
+		try (final HttpServer endpoint = new HttpServer();
+				CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+			endpoint.get("/range.txt", request -> path.toFile());
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			HttpGet single = new HttpGet("http://localhost:" + PORT + "/range.txt");
+			single.setHeader("Range", "bytes=10-14");
+			try (CloseableHttpResponse response = httpclient.execute(single)) {
+				Assert.assertEquals(206, response.getStatusLine().getStatusCode());
+				Assert.assertEquals("bytes 10-14/20", response.getFirstHeader("Content-Range").getValue());
+				Assert.assertEquals("abcde", EntityUtils.toString(response.getEntity()));
+			}
+
+			HttpGet multi = new HttpGet("http://localhost:" + PORT + "/range.txt");
+			multi.setHeader("Range", "bytes=0-1,-2");
+			try (CloseableHttpResponse response = httpclient.execute(multi)) {
+				Assert.assertEquals(206, response.getStatusLine().getStatusCode());
+				String body = EntityUtils.toString(response.getEntity());
+				Assert.assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+				Assert.assertTrue(body.contains("Content-Range: bytes 18-19/20\r\n\r\nij\r\n"));
+			}
+
+			HttpGet outside = new HttpGet("http://localhost:" + PORT + "/range.txt");
+			outside.setHeader("Range", "bytes=100-");
+			try (CloseableHttpResponse response = httpclient.execute(outside)) {
+				Assert.assertEquals(416, response.getStatusLine().getStatusCode());
+				EntityUtils.consume(response.getEntity());
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testETags() throws IOException {
+		Path path = Files.createTempFile("etag", ".txt");
+		Files.write(path, "static".getBytes(StandardCharsets.US_ASCII));
+
+		try (final HttpServer endpoint = new HttpServer();
+				CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+			endpoint.get("/etag.txt", request -> path.toFile());
+			endpoint.get("/dynamic", request -> "dynamic", RouteOptions.DEFAULT.etag(true));
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			for (String url : new String[] { "/etag.txt", "/dynamic" }) {
+				String etag;
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + url))) {
+					Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+					etag = response.getFirstHeader("ETag").getValue();
+					EntityUtils.consume(response.getEntity());
+				}
+
+				HttpGet revalidate = new HttpGet("http://localhost:" + PORT + url);
+				revalidate.setHeader("If-None-Match", "\"other\", " + etag);
+				try (CloseableHttpResponse response = httpclient.execute(revalidate)) {
+					Assert.assertEquals(304, response.getStatusLine().getStatusCode());
+					Assert.assertEquals(etag, response.getFirstHeader("ETag").getValue());
+				}
+			}
+
+			// compressed on the fly, so tagged as another representation
+			endpoint.get("/large", request -> new String(new char[4096]).replace('\0', 'x'), RouteOptions.DEFAULT.etag(true));
+			HttpGet get = new HttpGet("http://localhost:" + PORT + "/large");
+			get.setHeader("Accept-Encoding", "gzip");
+			String etag;
+			try (CloseableHttpResponse response = httpclient.execute(get)) {
+				etag = response.getFirstHeader("ETag").getValue();
+				EntityUtils.consume(response.getEntity());
+			}
+			Assert.assertTrue(etag, etag.endsWith("-gzip\""));
+			HttpGet revalidate = new HttpGet("http://localhost:" + PORT + "/large");
+			revalidate.setHeader("Accept-Encoding", "gzip");
+			revalidate.setHeader("If-None-Match", etag);
+			try (CloseableHttpResponse response = httpclient.execute(revalidate)) {
+				Assert.assertEquals(304, response.getStatusLine().getStatusCode());
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testConnectionReuse() throws IOException, InterruptedException {
+		Path path = Files.createTempFile("reuse", ".txt");
+		Files.write(path, "reuse".getBytes(StandardCharsets.US_ASCII));
+
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/reuse.txt", request -> path.toFile());
+
+			ChannelFuture future = endpoint.start(new InetSocketAddress(PORT));
+
+			String etag;
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/reuse.txt"))) {
+					etag = response.getFirstHeader("ETag").getValue();
+					EntityUtils.consume(response.getEntity());
+				}
+				for (int i = 0; i < 3; i++) {
+					HttpGet revalidate = new HttpGet("http://localhost:" + PORT + "/reuse.txt");
+					revalidate.setHeader("If-None-Match", etag);
+					try (CloseableHttpResponse response = httpclient.execute(revalidate)) {
+						Assert.assertEquals(304, response.getStatusLine().getStatusCode());
+					}
+				}
+			}
+
+			ConnectionMetrics connections = endpoint.getMetrics().getConnections();
+			for (int i = 0; i < 50 && connections.getActive() > 0; i++)
+				Thread.sleep(100);
+			// the 304s kept the connection open
+			Assert.assertEquals(1, connections.getOpened());
+			Assert.assertEquals(4, connections.getRequests());
+			Assert.assertEquals(1, connections.getCloses(ConnectionMetrics.CloseReason.CLIENT));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Test
+	public void testRouteMetrics() throws IOException {
+		try (final HttpServer endpoint = new HttpServer()) {
+			endpoint.get("/hello/{name}", (PathHandler) (request, params) -> "hello " + params.get("name"));
+			endpoint.metrics("/metrics");
+
+			endpoint.start(new InetSocketAddress(PORT));
+
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+				for (String name : new String[] { "a", "b", "c" }) {
+					try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/hello/" + name))) {
+						Assert.assertEquals("hello " + name, EntityUtils.toString(response.getEntity()));
+					}
+				}
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/nowhere"))) {
+					Assert.assertEquals(404, response.getStatusLine().getStatusCode());
+					EntityUtils.consume(response.getEntity());
+				}
+
+				RouteMetrics hello = endpoint.getMetrics().getRoutes().iterator().next();
+				Assert.assertEquals("/hello/{name}", hello.getPath());
+				Assert.assertEquals(3, hello.getRequests(2));
+				Assert.assertEquals(3 * "hello a".length(), hello.getBytesOut());
+				Assert.assertEquals(1, endpoint.getMetrics().getUnmatched().getRequests(4));
+
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/metrics"))) {
+					String body = EntityUtils.toString(response.getEntity());
+					logger.debug(body);
+					Assert.assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+					Assert.assertTrue(body.contains("http_requests_total{method=\"GET\",route=\"/hello/{name}\",status=\"2xx\"} 3\n"));
+					Assert.assertTrue(body.contains("http_requests_total{method=\"\",route=\"unmatched\",status=\"4xx\"} 1\n"));
+					Assert.assertTrue(body.contains("http_request_duration_seconds_count{method=\"GET\",route=\"/hello/{name}\"} 3\n"));
+					Assert.assertTrue(body.contains("http_request_duration_seconds_bucket{method=\"GET\",route=\"/hello/{name}\",le=\"0.0001\"} "));
+					Assert.assertTrue(body.contains("http_request_duration_seconds_bucket{method=\"GET\",route=\"/hello/{name}\",le=\"+Inf\"} 3\n"));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEventLoopMonitor() throws IOException, InterruptedException {
+		HttpServerConfig config = new HttpServerConfig()
+				.setWorkerThreads(1)
+				.setEventLoopProbeInterval(20)
+				.setBlockingThreshold(200);
+		try (final HttpServer endpoint = new HttpServer(config)) {
+			// blocks the only event loop, which a real handler must never do
+			endpoint.get("/sleep", request -> {
+				Thread.sleep(600);
+				return "awake";
+			});
+			endpoint.metrics("/metrics");
+
+			endpoint.start(new InetSocketAddress(PORT));
+
+			try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/sleep"))) {
+					Assert.assertEquals("awake", EntityUtils.toString(response.getEntity()));
+				}
+
+				EventLoopMonitor.Loop loop = endpoint.getMetrics().getEventLoops().getLoops().get(0);
+				Assert.assertEquals(1, loop.getBlocked());
+				// the probe that was held up runs right after the handler
+				for (int i = 0; i < 50 && loop.getLagNanos() < TimeUnit.MILLISECONDS.toNanos(300); i++)
+					Thread.sleep(20);
+				Assert.assertTrue(loop.getLagNanos() >= TimeUnit.MILLISECONDS.toNanos(300));
+
+				try (CloseableHttpResponse response = httpclient.execute(new HttpGet("http://localhost:" + PORT + "/metrics"))) {
+					String body = EntityUtils.toString(response.getEntity());
+					Assert.assertTrue(body.contains("eventloop_blocked_total{loop=\"0\"} 1\n"));
+					Assert.assertTrue(body.contains("eventloop_pending_tasks{loop=\"0\"} "));
+				}
+			}
+		}
+	}
+
 	public static  File testHTTPGetFile(String url) throws ClientProtocolException, IOException, URISyntaxException {
 		try (CloseableHttpClient httpclient = HttpClientUtil.getHttpClient()) {
 			URI baseuri = new URI(url);
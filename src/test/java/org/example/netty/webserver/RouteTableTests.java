@@ -0,0 +1,93 @@
+package org.example.netty.webserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+public class RouteTableTests {
+
+	private static Route route(RouteTable table, HttpMethod method, String path) {
+		Route route = new Route(method, path, (request) -> path);
+		table.addRoute(route);
+		return route;
+	}
+
+	@Test
+	public void testLiteralRoutes() {
+		RouteTable table = new RouteTable();
+		Route hello = route(table, HttpMethod.GET, "/hello");
+		Route help = route(table, HttpMethod.GET, "/help");
+		Route file = route(table, HttpMethod.GET, "/static/components.png");
+
+		Assert.assertSame(hello, table.findRoute(HttpMethod.GET, "/hello"));
+		Assert.assertSame(help, table.findRoute(HttpMethod.GET, "/help"));
+		Assert.assertSame(file, table.findRoute(HttpMethod.GET, "/static/components.png"));
+		Assert.assertSame(hello, table.findRoute(HttpMethod.GET, "/hello?name=world"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/hel"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/hello/"));
+		Assert.assertNull(table.findRoute(HttpMethod.POST, "/hello"));
+	}
+
+	@Test
+	public void testPathParams() {
+		RouteTable table = new RouteTable();
+		Route user = route(table, HttpMethod.GET, "/users/{id:int}");
+		Route me = route(table, HttpMethod.GET, "/users/me");
+		Route post = route(table, HttpMethod.GET, "/users/{id:int}/posts/{slug}");
+		Route files = route(table, HttpMethod.GET, "/files/{path:path}");
+
+		Assert.assertSame(me, table.findRoute(HttpMethod.GET, "/users/me"));
+		Assert.assertSame(user, table.findRoute(HttpMethod.GET, "/users/42"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/users/abc"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/users/99999999999"));
+		Assert.assertSame(post, table.findRoute(HttpMethod.GET, "/users/-7/posts/hello-world"));
+		Assert.assertSame(files, table.findRoute(HttpMethod.GET, "/files/a/b/c.txt"));
+
+		PathParams params = post.extractParams("/users/-7/posts/hello-world?x=1");
+		Assert.assertEquals(2, params.size());
+		Assert.assertEquals(-7, params.getInt("id"));
+		Assert.assertEquals("hello-world", params.get("slug"));
+		Assert.assertEquals("a/b/c.txt", files.extractParams("/files/a/b/c.txt").get("path"));
+		Assert.assertSame(PathParams.EMPTY, me.extractParams("/users/me"));
+	}
+
+	@Test
+	public void testRegexFallback() {
+		RouteTable table = new RouteTable();
+		Route literal = route(table, HttpMethod.GET, "/hello");
+		Route regex = route(table, HttpMethod.GET, "/hello/\\d+");
+
+		Assert.assertFalse(regex.isTemplate());
+		Assert.assertSame(literal, table.findRoute(HttpMethod.GET, "/hello"));
+		Assert.assertSame(regex, table.findRoute(HttpMethod.GET, "/hello/123"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/hello/abc"));
+	}
+
+	@Test
+	public void testAddAndRemoveSnapshots() {
+		RouteTable table = new RouteTable();
+		Route hello = route(table, HttpMethod.GET, "/hello");
+		RouteSnapshot before = table.snapshot();
+
+		Route replaced = route(table, HttpMethod.GET, "/hello");
+		route(table, HttpMethod.GET, "/users/{id}");
+		Assert.assertSame(replaced, table.findRoute(HttpMethod.GET, "/hello"));
+		Assert.assertSame(hello, before.findRoute(HttpMethod.GET, "/hello"));
+		Assert.assertNull(before.findRoute(HttpMethod.GET, "/users/1"));
+		Assert.assertTrue(table.snapshot().getVersion() > before.getVersion());
+
+		Assert.assertSame(replaced, table.removeRoute(HttpMethod.GET, "/hello"));
+		Assert.assertNull(table.removeRoute(HttpMethod.GET, "/hello"));
+		Assert.assertNull(table.findRoute(HttpMethod.GET, "/hello"));
+		Assert.assertNotNull(table.findRoute(HttpMethod.GET, "/users/1"));
+		Assert.assertEquals(1, table.snapshot().getRoutes().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConflictingParams() {
+		RouteTable table = new RouteTable();
+		route(table, HttpMethod.GET, "/users/{id}");
+		route(table, HttpMethod.GET, "/users/{name}/posts");
+	}
+}
@@ -1,13 +1,20 @@
 package org.example.netty.webserver;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.NameValuePair;
@@ -19,6 +26,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.multipart.Attribute;
@@ -26,11 +37,13 @@ import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData.HttpDataType;
+import io.netty.util.ResourceLeakDetector;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
+import okio.ByteString;
 
 public class WebServerTests {
 
@@ -150,14 +163,289 @@ public class WebServerTests {
 	    endpoint.close();
 	}
 	
+	@Test
+	public void testNoBufferLeaks() throws Exception {
+		// set by the surefire configuration, every buffer is tracked
+		Assert.assertEquals(ResourceLeakDetector.Level.PARANOID, ResourceLeakDetector.getLevel());
+
+		ch.qos.logback.classic.Logger leakLogger = (ch.qos.logback.classic.Logger) LoggerFactory
+				.getLogger(ResourceLeakDetector.class);
+		ListAppender<ILoggingEvent> reports = new ListAppender<ILoggingEvent>();
+		reports.start();
+		leakLogger.addAppender(reports);
+
+		try (final WebServer endpoint = new WebServer(WSURI)) {
+			endpoint.get("/hello", (request) -> "Hello world");
+			endpoint.start(new InetSocketAddress(PORT));
+
+			OkHttpClient client = new OkHttpClient();
+			for (int i = 0; i < 5; i++) {
+				SocketListener l = new SocketListener();
+				WebSocket ws = testWebSocket(l);
+				for (int j = 0; j < 50 && !l.isOpened(); j++)
+					Thread.sleep(20);
+				Assert.assertTrue(l.isOpened());
+				ws.send("hello " + i);
+				ws.close(1000, null);
+
+				// the WebSocket path without an upgrade is answered with 426
+				client.newCall(new Request.Builder().url("http://localhost:" + PORT + WSURI).build()).execute().close();
+
+				Assert.assertEquals("Hello world", HttpServerTests.testHTTPGet("http://localhost:" + PORT + "/hello", null));
+			}
+
+			// a leak is reported once the buffer is collected and another one is tracked
+			System.gc();
+			Thread.sleep(200);
+			for (int i = 0; i < 5; i++)
+				HttpServerTests.testHTTPGet("http://localhost:" + PORT + "/hello", null);
+		} finally {
+			leakLogger.detachAppender(reports);
+		}
+
+		for (ILoggingEvent event : reports.list)
+			Assert.assertFalse(event.getFormattedMessage(), event.getLevel().isGreaterOrEqual(Level.ERROR));
+	}
+
+	@Test
+	public void testBroadcast() throws InterruptedException {
+		try (final WebServer endpoint = new WebServer(WSURI)) {
+			endpoint.start(new InetSocketAddress(PORT));
+			WebSocketHub hub = endpoint.getHub();
+
+			SocketListener news1 = new SocketListener();
+			SocketListener news2 = new SocketListener();
+			SocketListener other = new SocketListener();
+			WebSocket ws1 = testWebSocket(news1);
+			WebSocket ws2 = testWebSocket(news2);
+			WebSocket ws3 = testWebSocket(other);
+			ws1.send("SUBSCRIBE news");
+			ws2.send("SUBSCRIBE news");
+			ws3.send("SUBSCRIBE other");
+
+			for (int i = 0; i < 50 && (hub.subscribers("news") < 2 || hub.subscribers("other") < 1); i++)
+				Thread.sleep(20);
+			Assert.assertEquals(2, hub.subscribers("news"));
+
+			Assert.assertTrue(hub.publish("news", "first") > 0);
+			hub.publish("news", "second");
+			Assert.assertEquals("first", news1.getMessages().poll(3, TimeUnit.SECONDS));
+			Assert.assertEquals("second", news1.getMessages().poll(3, TimeUnit.SECONDS));
+			Assert.assertEquals("first", news2.getMessages().poll(3, TimeUnit.SECONDS));
+			Assert.assertEquals("second", news2.getMessages().poll(3, TimeUnit.SECONDS));
+			Assert.assertTrue(other.getMessages().isEmpty());
+
+			ws2.send("UNSUBSCRIBE news");
+			ws1.close(1000, null);
+			for (int i = 0; i < 50 && hub.subscribers("news") > 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(0, hub.subscribers("news"));
+			Assert.assertEquals(0, hub.publish("news", "nobody"));
+
+			ws2.close(1000, null);
+			ws3.close(1000, null);
+		}
+	}
+
+	@Test
+	public void testSlowConsumer() throws IOException, InterruptedException {
+		HttpServerConfig config = new HttpServerConfig()
+				.setWebSocketCompression(false)
+				.setWebSocketWriteBufferWaterMark(8 * 1024, 16 * 1024)
+				.setSlowConsumerPolicy(HttpServerConfig.SlowConsumerPolicy.DISCONNECT)
+				.setSlowConsumerGracePeriod(200);
+		try (final WebServer endpoint = new WebServer(WSURI, config)) {
+			endpoint.start(new InetSocketAddress(PORT));
+
+			// a client that subscribes and then never reads
+			try (Socket socket = new Socket()) {
+				socket.setReceiveBufferSize(4096);
+				socket.connect(new InetSocketAddress("localhost", PORT));
+				OutputStream out = socket.getOutputStream();
+				out.write(("GET " + WSURI + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+						+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+						.getBytes(StandardCharsets.US_ASCII));
+				InputStream in = socket.getInputStream();
+				for (int matched = 0; matched < 4;) {
+					int c = in.read();
+					Assert.assertTrue(c >= 0);
+					matched = c == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : 0;
+				}
+
+				// a masked text frame, with a zero mask the payload goes as is
+				byte[] subscribe = "SUBSCRIBE feed".getBytes(StandardCharsets.US_ASCII);
+				out.write(new byte[] { (byte) 0x81, (byte) (0x80 | subscribe.length), 0, 0, 0, 0 });
+				out.write(subscribe);
+				out.flush();
+
+				WebSocketHub hub = endpoint.getHub();
+				for (int i = 0; i < 50 && hub.subscribers("feed") == 0; i++)
+					Thread.sleep(20);
+				Assert.assertEquals(1, hub.subscribers("feed"));
+
+				char[] chars = new char[64 * 1024];
+				Arrays.fill(chars, 'x');
+				String message = new String(chars);
+				WebSocketMetrics webSockets = endpoint.getMetrics().getWebSockets();
+				for (int i = 0; i < 500 && webSockets.getDropped() == 0; i++) {
+					hub.publish("feed", message);
+					Thread.sleep(2);
+				}
+				Assert.assertTrue(webSockets.getDropped() > 0);
+
+				ConnectionMetrics connections = endpoint.getMetrics().getConnections();
+				for (int i = 0; i < 100 && connections.getCloses(ConnectionMetrics.CloseReason.SLOW_CONSUMER) == 0; i++)
+					Thread.sleep(20);
+				Assert.assertEquals(1, webSockets.getDisconnected());
+				Assert.assertEquals(1, connections.getCloses(ConnectionMetrics.CloseReason.SLOW_CONSUMER));
+				// the close is counted by a handler in front of the one that clears the gauge
+				for (int i = 0; i < 50 && webSockets.getUnwritable() > 0; i++)
+					Thread.sleep(20);
+				Assert.assertEquals(0, webSockets.getUnwritable());
+				Assert.assertEquals(0, hub.subscribers("feed"));
+			}
+		}
+	}
+
+	@Test
+	public void testHeartbeat() throws IOException, InterruptedException {
+		HttpServerConfig config = new HttpServerConfig()
+				.setWebSocketCompression(false)
+				.setWebSocketPingInterval(200);
+		try (final WebServer endpoint = new WebServer(WSURI, config)) {
+			endpoint.start(new InetSocketAddress(PORT));
+
+			// answers pings on its own and outlives several intervals
+			SocketListener l = new SocketListener();
+			WebSocket ws = testWebSocket(l);
+			Thread.sleep(1000);
+			Assert.assertTrue(l.isOpened());
+
+			// a peer that never answers
+			try (Socket socket = new Socket()) {
+				socket.setSoTimeout(5000);
+				socket.connect(new InetSocketAddress("localhost", PORT));
+				OutputStream out = socket.getOutputStream();
+				out.write(("GET " + WSURI + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+						+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+						.getBytes(StandardCharsets.US_ASCII));
+				InputStream in = socket.getInputStream();
+				for (int matched = 0; matched < 4;) {
+					int c = in.read();
+					Assert.assertTrue(c >= 0);
+					matched = c == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : 0;
+				}
+
+				// an empty ping, then the close
+				Assert.assertEquals(0x89, in.read());
+				Assert.assertEquals(0, in.read());
+				while (in.read() != -1)
+					;
+			}
+
+			ConnectionMetrics connections = endpoint.getMetrics().getConnections();
+			for (int i = 0; i < 50 && connections.getCloses(ConnectionMetrics.CloseReason.HEARTBEAT) == 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(1, connections.getCloses(ConnectionMetrics.CloseReason.HEARTBEAT));
+			Assert.assertTrue(l.isOpened());
+			ws.close(1000, null);
+		}
+	}
+
+	static final class Sample {
+		final long time;
+		final double value;
+
+		Sample(long time, double value) {
+			this.time = time;
+			this.value = value;
+		}
+	}
+
+	@Test
+	public void testBinaryMessages() throws Exception {
+		try (final WebServer endpoint = new WebServer(WSURI)) {
+			TaggedBinaryCodec codec = new TaggedBinaryCodec().register(1, Sample.class,
+					in -> new Sample(in.readLong(), in.readDouble()),
+					(sample, out) -> out.writeLong(sample.time).writeDouble(sample.value));
+			WebSocketMessages messages = endpoint.getMessages().codec(codec);
+			// echoes every sample with its value doubled
+			messages.on(Sample.class, (channel, sample) -> messages.send(channel, new Sample(sample.time, sample.value * 2)));
+
+			endpoint.start(new InetSocketAddress(PORT));
+
+			SocketListener l = new SocketListener();
+			WebSocket ws = testWebSocket(l);
+			ws.send(ByteString.of(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 42, 0x40, 0x09, 0x21, (byte) 0xfb, 0x54, 0x44, 0x2d, 0x18 }));
+
+			ByteString reply = l.getBinaryMessages().poll(3, TimeUnit.SECONDS);
+			Assert.assertNotNull(reply);
+			Assert.assertEquals(17, reply.size());
+			Assert.assertEquals(1, reply.getByte(0));
+			Sample echoed = (Sample) codec.decode(Unpooled.wrappedBuffer(reply.toByteArray()));
+			Assert.assertEquals(42, echoed.time);
+			Assert.assertEquals(2 * Math.PI, echoed.value, 0);
+
+			// an unknown type tag is invalid payload data
+			ws.send(ByteString.of(new byte[] { 7, 1, 2, 3 }));
+			for (int i = 0; i < 150 && l.getCloseCode() == 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(1007, l.getCloseCode());
+		}
+	}
+
+	@Test
+	public void testWebSocketRoutes() throws InterruptedException, IOException {
+		try (final WebServer endpoint = new WebServer(WSURI)) {
+			WebSocketHub hub = endpoint.getHub();
+			endpoint.ws("/feed/{topic}", (channel, params) -> hub.subscribe(channel, params.get("topic")));
+			endpoint.get("/hello", (request) -> "Hello world");
+			endpoint.start(new InetSocketAddress(PORT));
+
+			SocketListener feed = new SocketListener();
+			WebSocket ws1 = testWebSocket("/feed/news?token=secret", feed);
+			for (int i = 0; i < 50 && hub.subscribers("news") == 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(1, hub.subscribers("news"));
+			hub.publish("news", "first");
+			Assert.assertEquals("first", feed.getMessages().poll(3, TimeUnit.SECONDS));
+
+			// the server's own endpoint, with a query string
+			SocketListener own = new SocketListener();
+			WebSocket ws2 = testWebSocket(WSURI + "?v=1", own);
+			ws2.send("SUBSCRIBE news");
+			for (int i = 0; i < 50 && hub.subscribers("news") < 2; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(2, hub.subscribers("news"));
+
+			OkHttpClient client = new OkHttpClient();
+			try (Response response = client.newCall(new Request.Builder()
+					.url("http://localhost:" + PORT + "/feed/news").build()).execute()) {
+				Assert.assertEquals(426, response.code());
+				Assert.assertEquals("websocket", response.header("Upgrade"));
+			}
+			Assert.assertEquals("Hello world", HttpServerTests.testHTTPGet("http://localhost:" + PORT + "/hello", null));
+
+			ws1.close(1000, null);
+			ws2.close(1000, null);
+			for (int i = 0; i < 50 && hub.subscribers("news") > 0; i++)
+				Thread.sleep(20);
+			Assert.assertEquals(0, hub.subscribers("news"));
+		}
+	}
+
 	public static WebSocket testWebSocket(SocketListener l) throws InterruptedException {
+		return testWebSocket(WSURI, l);
+	}
+
+	public static WebSocket testWebSocket(String uri, SocketListener l) throws InterruptedException {
 		OkHttpClient client = new OkHttpClient.Builder()
 				.readTimeout(3,  TimeUnit.SECONDS)
 				.retryOnConnectionFailure(true)
 				.build();
 		
 		Request request = new Request.Builder()
-	                .url("http://localhost:" + PORT + WSURI)
+	                .url("http://localhost:" + PORT + uri)
 	                .build();
 			
 	    return client.newWebSocket(request, l);	    
@@ -167,6 +455,12 @@ public class WebServerTests {
     	private static final Logger logger = LoggerFactory.getLogger(SocketListener.class);
     	
     	private volatile boolean opened = false;
+
+    	private final BlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+
+    	private final BlockingQueue<ByteString> binaryMessages = new LinkedBlockingQueue<ByteString>();
+
+    	private volatile int closeCode;
     	
         @Override
         public void onOpen(WebSocket webSocket, Response response) {
@@ -178,6 +472,18 @@ public class WebServerTests {
         @Override
         public void onMessage(WebSocket webSocket, String text) {
         	logger.debug(text);
+        	messages.add(text);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+        	binaryMessages.add(bytes);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+        	this.closeCode = code;
+        	webSocket.close(code, null);
         }
 
         @Override
@@ -191,6 +497,18 @@ public class WebServerTests {
             //disconnect();
         }
 
+		public BlockingQueue<String> getMessages() {
+			return messages;
+		}
+
+		public BlockingQueue<ByteString> getBinaryMessages() {
+			return binaryMessages;
+		}
+
+		public int getCloseCode() {
+			return closeCode;
+		}
+
 		public boolean isOpened() {
 			return opened;
 		}